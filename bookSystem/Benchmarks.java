@@ -0,0 +1,644 @@
+package bookSystem;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmark harness for the hot paths of MyTreeSet, BookManager and
+ * RequestManager, and for recovering a persisted request queue, in the
+ * spirit of JMH but with no dependencies:
+ *
+ *   java -cp out bookSystem.Benchmarks [options] [name regex]
+ *     -wi n        warmup iterations (default 3)
+ *     -i n         measured iterations (default 5)
+ *     -t ms        minimum length of an iteration (default 1000)
+ *     -f n         forks: fresh JVMs per benchmark, 0 to run in this JVM (default 1)
+ *     -p k=v1,v2   override a parameter, e.g. -p listings=10000000
+ *     -rf file     results file (default benchmark-results.jsonl)
+ *   java -cp out bookSystem.Benchmarks compare base.jsonl new.jsonl [threshold %]
+ *
+ * Each benchmark is run for every combination of its parameters. An
+ * iteration repeats untimed setup and timed batches until it has lasted at
+ * least -t ms; the score is the mean time per operation over the measured
+ * iterations, with a 99.9% confidence error. Forks inherit this JVM's
+ * options, so run with e.g. -Xmx4g for the large catalogues.
+ *
+ * Results are written as JSON lines, one object per benchmark and
+ * parameter combination, and compare reports the change between two such
+ * files, exiting with status 1 if any benchmark got slower by more than
+ * the threshold and its error.
+ */
+public class Benchmarks {
+    private static final String RESULT_PREFIX = "RESULT ";
+    private static final Map<String, List<String>> DEFAULT_PARAMS = new LinkedHashMap<>();
+
+    static {
+        DEFAULT_PARAMS.put("order", List.of("sorted", "random", "zigzag"));
+        DEFAULT_PARAMS.put("treeSize", List.of("100000"));
+        DEFAULT_PARAMS.put("listings", List.of("10000", "100000", "1000000"));
+        DEFAULT_PARAMS.put("lookup", List.of("hit", "miss"));
+        DEFAULT_PARAMS.put("ratio", List.of("0.1", "1", "10"));
+        DEFAULT_PARAMS.put("demand", List.of("10000"));
+        DEFAULT_PARAMS.put("pending", List.of("100000", "1000000"));
+    }
+
+    private static volatile Object sink;    // keeps results alive so the JIT cannot drop the work
+
+    // One benchmark with fixed parameters. Only run is timed.
+    private abstract static class Case {
+        final String name;
+        final Map<String, String> params;
+        final String unit;       // "ns/op" or "ms/op"
+
+        Case(String name, Map<String, String> params, String unit) {
+            this.name = name;
+            this.params = params;
+            this.unit = unit;
+        }
+
+        // once, before the warmup
+        void setupTrial() throws Exception {
+        }
+
+        // before every timed batch
+        void setupBatch() throws Exception {
+        }
+
+        // the measured work; returns the number of operations it did
+        abstract long run() throws Exception;
+
+        // once, after the last iteration
+        void tearDown() throws Exception {
+        }
+
+        int param(String key) {
+            return Integer.parseInt(params.get(key));
+        }
+
+        String id() {
+            return name + " " + paramString(params);
+        }
+    }
+
+    // every benchmark, for every combination of the parameters it uses
+    private static List<Case> cases(Map<String, List<String>> params) {
+        List<Case> cases = new ArrayList<>();
+        for (Map<String, String> p : combinations(params, "order", "treeSize")) {
+            cases.add(new Case("tree.add", p, "ns/op") {
+                int[] keys;
+
+                @Override
+                void setupTrial() {
+                    keys = keys(params.get("order"), param("treeSize"));
+                }
+
+                @Override
+                long run() {
+                    MyTreeSet<Integer> tree = new MyTreeSet<>();
+                    for (int key : keys) {
+                        tree.add(key);
+                    }
+                    sink = tree;
+                    return keys.length;
+                }
+            });
+            cases.add(new Case("tree.remove", p, "ns/op") {
+                int[] keys;
+                MyTreeSet<Integer> tree;
+
+                @Override
+                void setupTrial() {
+                    keys = keys(params.get("order"), param("treeSize"));
+                }
+
+                @Override
+                void setupBatch() {
+                    tree = new MyTreeSet<>();
+                    for (int key : keys) {
+                        tree.add(key);
+                    }
+                }
+
+                @Override
+                long run() {
+                    for (int key : keys) {
+                        tree.remove(key);
+                    }
+                    return keys.length;
+                }
+            });
+            cases.add(new Case("tree.iterate", p, "ns/op") {
+                MyTreeSet<Integer> tree;
+
+                @Override
+                void setupTrial() {
+                    tree = new MyTreeSet<>();
+                    for (int key : keys(params.get("order"), param("treeSize"))) {
+                        tree.add(key);
+                    }
+                }
+
+                @Override
+                long run() {
+                    long sum = 0;
+                    for (int key : tree) {
+                        sum += key;
+                    }
+                    sink = sum;
+                    return tree.size();
+                }
+            });
+        }
+        for (Map<String, String> p : combinations(params, "listings")) {
+            cases.add(new CatalogueCase("manager.load", p, "ms/op") {
+                @Override
+                long run() {
+                    BookManager loaded = new BookManager(file.toString());
+                    sink = loaded;
+                    loaded.close();
+                    return 1;
+                }
+            });
+            cases.add(new CatalogueCase("manager.save", p, "ms/op") {
+                BookManager manager;
+
+                @Override
+                void setupTrial() throws Exception {
+                    super.setupTrial();
+                    manager = new BookManager(file.toString());
+                }
+
+                @Override
+                long run() {
+                    manager.saveBooks();
+                    return 1;
+                }
+
+                @Override
+                void tearDown() throws Exception {
+                    manager.close();
+                    super.tearDown();
+                }
+            });
+            cases.add(new CatalogueCase("csv.read", p, "ms/op") {
+                @Override
+                long run() throws IOException {
+                    sink = BookCsv.read(file);
+                    return 1;
+                }
+            });
+            cases.add(new CatalogueCase("csv.write", p, "ms/op") {
+                List<Book> books;
+                Path out;
+
+                @Override
+                void setupTrial() throws Exception {
+                    super.setupTrial();
+                    books = BookCsv.read(file);
+                    out = dir.resolve("export.txt");
+                }
+
+                @Override
+                long run() throws IOException {
+                    sink = BookCsv.write(out, books);
+                    return 1;
+                }
+            });
+        }
+        for (Map<String, String> p : combinations(params, "listings", "lookup")) {
+            cases.add(new CatalogueCase("manager.getBook", p, "ns/op") {
+                final int gets = 1000;
+                BookManager manager;
+                List<Book> sample;
+                final List<Book> taken = new ArrayList<>();
+                final Random random = new Random(3);
+
+                @Override
+                void setupTrial() throws Exception {
+                    super.setupTrial();
+                    manager = new BookManager(file.toString());
+                    sample = manager.getAllBooks();
+                }
+
+                @Override
+                void setupBatch() {
+                    // put back what the last batch took, so every batch sees the full catalogue
+                    for (Book book : taken) {
+                        manager.addBook(book);
+                    }
+                    taken.clear();
+                }
+
+                @Override
+                long run() {
+                    boolean hit = params.get("lookup").equals("hit");
+                    for (int i = 0; i < gets; i++) {
+                        String title = hit ? sample.get(random.nextInt(sample.size())).getTitle()
+                                : generator.missingTitle(i);
+                        Book book = manager.getBook(title);
+                        if (book != null) {
+                            taken.add(book);
+                        }
+                    }
+                    return gets;
+                }
+
+                @Override
+                void tearDown() throws Exception {
+                    manager.close();
+                    super.tearDown();
+                }
+            });
+        }
+        for (Map<String, String> p : combinations(params, "ratio", "demand")) {
+            cases.add(new Case("requests.process", p, "ns/op") {
+                Path dir;
+                BookManager manager;
+                RequestManager requests;
+                int batch;
+
+                @Override
+                void setupTrial() throws IOException {
+                    dir = Files.createTempDirectory("bench");
+                }
+
+                // a fresh catalogue with ratio copies per request, over the same titles
+                @Override
+                void setupBatch() {
+                    if (manager != null) {
+                        manager.close();
+                    }
+                    int demand = param("demand");
+                    int supply = (int) Math.round(Double.parseDouble(params.get("ratio")) * demand);
+                    BookDataGenerator generator = new BookDataGenerator(7, Math.max(demand, supply));
+                    manager = new BookManager(dir.resolve("books" + batch++ + ".txt").toString());
+                    for (int i = 0; i < supply; i++) {
+                        manager.addBook(generator.book(i));
+                    }
+                    requests = new RequestManager();
+                    for (int i = 0; i < demand; i++) {
+                        requests.addRequest(generator.request(i));
+                    }
+                }
+
+                @Override
+                long run() {
+                    sink = requests.processRequests(manager);
+                    return param("demand");
+                }
+
+                @Override
+                void tearDown() throws IOException {
+                    manager.close();
+                    deleteTree(dir);
+                }
+            });
+        }
+        for (Map<String, String> p : combinations(params, "pending")) {
+            cases.add(new Case("requests.recover", p, "ms/op") {
+                Path dir;
+                String file;
+
+                // a queue whose last checkpoint holds most of the requests and whose journal the rest
+                @Override
+                void setupTrial() throws IOException {
+                    dir = Files.createTempDirectory("bench");
+                    file = dir.resolve("requests.txt").toString();
+                    int pending = param("pending");
+                    BookDataGenerator generator = new BookDataGenerator(7, pending);
+                    RequestManager requests = new RequestManager(file);
+                    for (int i = 0; i < pending; i++) {
+                        requests.addRequest(generator.request(i));
+                    }
+                    requests.close();
+                }
+
+                @Override
+                long run() {
+                    RequestManager recovered = new RequestManager(file);
+                    sink = recovered;
+                    recovered.close();
+                    return 1;
+                }
+
+                @Override
+                void tearDown() throws IOException {
+                    deleteTree(dir);
+                }
+            });
+        }
+        return cases;
+    }
+
+    // a benchmark over a generated books.txt, checkpointed once so it loads from the snapshot
+    private abstract static class CatalogueCase extends Case {
+        Path dir;
+        Path file;
+        BookDataGenerator generator;
+
+        CatalogueCase(String name, Map<String, String> params, String unit) {
+            super(name, params, unit);
+        }
+
+        @Override
+        void setupTrial() throws Exception {
+            int listings = param("listings");
+            dir = Files.createTempDirectory("bench");
+            file = dir.resolve("books.txt");
+            generator = new BookDataGenerator(1, listings);
+            generator.write(file, listings);
+            BookManager manager = new BookManager(file.toString());
+            manager.saveBooks();
+            manager.close();
+        }
+
+        @Override
+        void tearDown() throws Exception {
+            deleteTree(dir);
+        }
+    }
+
+    // n distinct keys in the given order; zigzag alternates between the ends,
+    // which makes every insertion rebalance near the root
+    private static int[] keys(String order, int n) {
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = i;
+        }
+        switch (order) {
+            case "sorted":
+                break;
+            case "random":
+                Random random = new Random(11);
+                for (int i = n - 1; i > 0; i--) {
+                    int j = random.nextInt(i + 1);
+                    int t = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = t;
+                }
+                break;
+            case "zigzag":
+                for (int i = 0; i < n; i++) {
+                    keys[i] = i % 2 == 0 ? i / 2 : n - 1 - i / 2;
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown order " + order);
+        }
+        return keys;
+    }
+
+    // every combination of the values of the given parameters
+    private static List<Map<String, String>> combinations(Map<String, List<String>> params, String... keys) {
+        List<Map<String, String>> result = new ArrayList<>();
+        result.add(new LinkedHashMap<>());
+        for (String key : keys) {
+            List<Map<String, String>> next = new ArrayList<>();
+            for (Map<String, String> partial : result) {
+                for (String value : params.get(key)) {
+                    Map<String, String> combination = new LinkedHashMap<>(partial);
+                    combination.put(key, value);
+                    next.add(combination);
+                }
+            }
+            result = next;
+        }
+        return result;
+    }
+
+    private static String paramString(Map<String, String> params) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    // Runs one case and returns the time per operation of each measured iteration, in its unit
+    private static List<Double> measure(Case c, int warmups, int iterations, long iterationMs) throws Exception {
+        c.setupTrial();
+        List<Double> samples = new ArrayList<>();
+        try {
+            for (int i = 0; i < warmups + iterations; i++) {
+                long timed = 0;
+                long ops = 0;
+                long end = System.nanoTime() + iterationMs * 1_000_000;
+                do {
+                    c.setupBatch();
+                    long start = System.nanoTime();
+                    ops += c.run();
+                    timed += System.nanoTime() - start;
+                } while (System.nanoTime() < end);
+                double perOp = (double) timed / ops / (c.unit.equals("ms/op") ? 1e6 : 1);
+                if (i >= warmups) {
+                    samples.add(perOp);
+                }
+                System.err.printf("  %s %d: %.3f %s%n", i < warmups ? "warmup" : "iteration", i < warmups ? i + 1 : i - warmups + 1, perOp, c.unit);
+            }
+        } finally {
+            c.tearDown();
+        }
+        return samples;
+    }
+
+    // One result as a JSON line
+    private static String result(Case c, List<Double> samples) throws IOException {
+        double mean = samples.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+        double variance = 0;
+        for (double sample : samples) {
+            variance += (sample - mean) * (sample - mean);
+        }
+        variance = samples.size() > 1 ? variance / (samples.size() - 1) : 0;
+        // normal approximation of the 99.9% confidence interval
+        double error = 3.29 * Math.sqrt(variance / Math.max(1, samples.size()));
+
+        StringWriter out = new StringWriter();
+        out.write("{\"benchmark\":");
+        Json.string(out, c.name);
+        out.write(",\"params\":");
+        Json.string(out, paramString(c.params));
+        out.write(",\"unit\":");
+        Json.string(out, c.unit);
+        out.write(",\"score\":");
+        Json.number(out, mean);
+        out.write(",\"error\":");
+        Json.number(out, error);
+        out.write(",\"min\":");
+        Json.number(out, Collections.min(samples));
+        out.write(",\"max\":");
+        Json.number(out, Collections.max(samples));
+        out.write(",\"samples\":");
+        Json.number(out, samples.size());
+        out.write(",\"jvm\":");
+        Json.string(out, System.getProperty("java.vm.name") + " " + System.getProperty("java.version"));
+        out.write(",\"date\":");
+        Json.string(out, Instant.now().toString());
+        out.write('}');
+        return out.toString();
+    }
+
+    // Runs one case in a fresh JVM with this JVM's options and returns its samples
+    private static List<Double> fork(String[] args, int index) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Benchmarks.class.getName());
+        command.add("--child");
+        command.add(Integer.toString(index));
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        List<Double> samples = null;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith(RESULT_PREFIX)) {
+                    samples = new ArrayList<>();
+                    for (String sample : line.substring(RESULT_PREFIX.length()).split(" ")) {
+                        samples.add(Double.parseDouble(sample));
+                    }
+                }
+            }
+        }
+        if (process.waitFor() != 0 || samples == null) {
+            throw new IOException("Fork for benchmark " + index + " failed with status " + process.exitValue());
+        }
+        return samples;
+    }
+
+    /**
+     * Compares two result files.
+     *
+     * @return the number of benchmarks that got slower by more than threshold percent and their errors
+     */
+    static int compare(Path base, Path current, double threshold, PrintStream out) throws IOException {
+        Map<String, Map<String, Object>> before = readResults(base);
+        Map<String, Map<String, Object>> after = readResults(current);
+        int regressions = 0;
+        out.printf("%-55s %14s %14s %8s%n", "Benchmark", "Base", "Current", "Change");
+        for (Map.Entry<String, Map<String, Object>> entry : after.entrySet()) {
+            Map<String, Object> now = entry.getValue();
+            Map<String, Object> then = before.get(entry.getKey());
+            double score = (Double) now.get("score");
+            if (then == null) {
+                out.printf("%-55s %14s %14.3f %8s%n", entry.getKey(), "-", score, "new");
+                continue;
+            }
+            double old = (Double) then.get("score");
+            double change = old == 0 ? 0 : (score - old) / old * 100;
+            // lower is better: a regression is slower by more than the threshold and both errors
+            boolean slower = change > threshold && score - (Double) now.get("error") > old + (Double) then.get("error");
+            if (slower) {
+                regressions++;
+            }
+            out.printf("%-55s %14.3f %14.3f %+7.1f%%%s%n", entry.getKey(), old, score, change, slower ? "  REGRESSION" : "");
+        }
+        return regressions;
+    }
+
+    // results by "benchmark params"; a later line for the same benchmark replaces an earlier one
+    private static Map<String, Map<String, Object>> readResults(Path file) throws IOException {
+        Map<String, Map<String, Object>> results = new TreeMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (!line.isBlank()) {
+                Map<String, Object> result = Json.parseObject(line);
+                results.put(result.get("benchmark") + " " + result.get("params"), result);
+            }
+        }
+        return results;
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        try (var paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("compare")) {
+            double threshold = args.length > 3 ? Double.parseDouble(args[3]) : 10;
+            int regressions = compare(Paths.get(args[1]), Paths.get(args[2]), threshold, System.out);
+            System.out.println(regressions == 0 ? "No regressions." : regressions + " regression(s).");
+            System.exit(regressions == 0 ? 0 : 1);
+        }
+
+        int warmups = 3;
+        int iterations = 5;
+        long iterationMs = 1000;
+        int forks = 1;
+        int child = -1;
+        Path resultFile = Paths.get("benchmark-results.jsonl");
+        Pattern filter = Pattern.compile(".*");
+        Map<String, List<String>> params = new LinkedHashMap<>(DEFAULT_PARAMS);
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-wi": warmups = Integer.parseInt(args[++i]); break;
+                case "-i": iterations = Integer.parseInt(args[++i]); break;
+                case "-t": iterationMs = Long.parseLong(args[++i]); break;
+                case "-f": forks = Integer.parseInt(args[++i]); break;
+                case "-rf": resultFile = Paths.get(args[++i]); break;
+                case "--child": child = Integer.parseInt(args[++i]); break;
+                case "-p":
+                    String[] kv = args[++i].split("=", 2);
+                    if (!params.containsKey(kv[0])) {
+                        throw new IllegalArgumentException("Unknown parameter " + kv[0] + "; known: " + params.keySet());
+                    }
+                    params.put(kv[0], Arrays.asList(kv[1].split(",")));
+                    break;
+                default: filter = Pattern.compile(args[i]);
+            }
+        }
+        List<Case> cases = new ArrayList<>();
+        for (Case c : cases(params)) {
+            if (filter.matcher(c.name).find()) {
+                cases.add(c);
+            }
+        }
+
+        if (child >= 0) {
+            // in a fork: run the one case and report its samples to the parent
+            List<Double> samples = measure(cases.get(child), warmups, iterations, iterationMs);
+            StringBuilder line = new StringBuilder(RESULT_PREFIX);
+            for (double sample : samples) {
+                line.append(line.length() > RESULT_PREFIX.length() ? " " : "").append(sample);
+            }
+            System.out.println(line);
+            System.exit(0);
+        }
+
+        try (BufferedWriter results = Files.newBufferedWriter(resultFile, StandardCharsets.UTF_8)) {
+            for (int index = 0; index < cases.size(); index++) {
+                Case c = cases.get(index);
+                System.err.println("# " + c.id());
+                List<Double> samples = new ArrayList<>();
+                if (forks == 0) {
+                    samples.addAll(measure(c, warmups, iterations, iterationMs));
+                } else {
+                    for (int f = 0; f < forks; f++) {
+                        samples.addAll(fork(args, index));
+                    }
+                }
+                String line = result(c, samples);
+                System.out.println(line);
+                results.write(line);
+                results.newLine();
+                results.flush();
+            }
+        }
+        System.err.println("Results written to " + resultFile);
+    }
+}
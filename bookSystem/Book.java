@@ -5,6 +5,7 @@
 package bookSystem;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Book class implements the Comparable interface to allow sorting by title.
@@ -16,6 +17,9 @@ public class Book implements Comparable<Book> {
     private String courseCode;  // The course code associated with the book
     private double price;       // The price of the book
     private String seller;      // The seller of the book
+    private final long listingId;   // Tells apart copies that are otherwise equal; persisted with the book
+
+    private static final AtomicLong NEXT_LISTING_ID = new AtomicLong(1);
 
     /**
      * Constructs a new Book object with the specified details.
@@ -26,10 +30,16 @@ public class Book implements Comparable<Book> {
      * @param seller     The seller of the book.
      */
     public Book(String title, String courseCode, double price, String seller) {
+        this(title, courseCode, price, seller, NEXT_LISTING_ID.getAndIncrement());
+    }
+
+    // Builds a book with a given listing id; id 0 sorts before every real copy of the same book
+    Book(String title, String courseCode, double price, String seller, long listingId) {
         this.title = title;
         this.courseCode = courseCode;
         this.price = price;
         this.seller = seller;
+        this.listingId = listingId;
     }
 
     //Gets the title of the book.
@@ -52,9 +62,36 @@ public class Book implements Comparable<Book> {
         return seller;
     }
 
-    //Compares this book to another book based on their titles (case-insensitive).
+    // Gets the id of this listing; ids are assigned in increasing order and never reused
+    public long getListingId() {
+        return listingId;
+    }
+
+    // Makes sure ids handed out from now on are above maxId, e.g. the largest id read back from disk
+    static void reserveListingIds(long maxId) {
+        NEXT_LISTING_ID.accumulateAndGet(maxId + 1, Math::max);
+    }
+
+    // Hands out count consecutive ids and returns the first, for a batch built in a known order
+    static long reserveListingIdBlock(int count) {
+        return NEXT_LISTING_ID.getAndAdd(count);
+    }
+
+    // Orders books by title (case-insensitive), then course code, seller and listing id, so
+    // several copies of a title sort next to each other without comparing equal.
+    // Note that this is finer than equals, which ignores the listing id.
     public int compareTo(Book other) {
-        return this.title.compareToIgnoreCase(other.title);
+        int cmp = this.title.compareToIgnoreCase(other.title);
+        if (cmp == 0) {
+            cmp = this.courseCode.compareTo(other.courseCode);
+        }
+        if (cmp == 0) {
+            cmp = this.seller.compareTo(other.seller);
+        }
+        if (cmp == 0) {
+            cmp = Long.compare(this.listingId, other.listingId);
+        }
+        return cmp;
     }
 
     // Equals method to compare two Book objects
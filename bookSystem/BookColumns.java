@@ -0,0 +1,354 @@
+package bookSystem;
+
+import java.util.*;
+
+/**
+ * Compact in-memory table of book listings, an alternative to holding one
+ * Book object per listing in BookManager's maps and trees.
+ *
+ * Every listing is a row. The row's fields live in parallel primitive
+ * columns: titles, course codes and sellers are dictionary-encoded (each
+ * distinct string is stored once and rows hold its int code), prices are
+ * fixed-point cents, and a primitive map finds a listing's row by its id.
+ * The copies of a title are chained through prev/next columns in listing
+ * order, so taking or counting a title's copies needs no per-listing objects
+ * either. Book objects are only created when a row is read, and carry the
+ * listing id they were stored with.
+ *
+ * Freed rows are reused by later listings. All methods are synchronized.
+ * BookManager keeps its listings here with Storage.COLUMNS.
+ */
+public class BookColumns implements ListingTable {
+    private static final int NONE = -1;
+
+    private final Dictionary titles = new Dictionary();
+    private final Dictionary courses = new Dictionary();
+    private final Dictionary sellers = new Dictionary();
+
+    // row columns
+    private int[] title = new int[16];
+    private int[] course = new int[16];
+    private int[] seller = new int[16];
+    private int[] priceCents = new int[16];
+    private long[] listingId = new long[16];
+    private int[] prev = new int[16];       // previous copy of the same title, or NONE
+    private int[] next = new int[16];       // next copy of the same title, or the next free row
+
+    // per-title columns, indexed by title code; head and tail are only valid while copies > 0
+    private int[] head = new int[16];       // oldest copy
+    private int[] tail = new int[16];       // newest copy
+    private int[] copies = new int[16];
+
+    private final LongLongMap rowById = new LongLongMap();
+
+    private int rows;                       // rows ever used
+    private int freeRow = NONE;             // head of the free row chain
+    private int size;
+    private int titleCount;                 // titles with copies > 0
+
+    // maps distinct strings to dense int codes and back
+    private static final class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private String[] values = new String[16];
+
+        int encode(String value) {
+            return encode(value, value);
+        }
+
+        // code of key; a new key decodes to value
+        int encode(String key, String value) {
+            Integer code = codes.get(key);
+            if (code == null) {
+                code = codes.size();
+                if (code == values.length) {
+                    values = Arrays.copyOf(values, code * 2);
+                }
+                values[code] = value;
+                codes.put(key, code);
+            }
+            return code;
+        }
+
+        // code of value, or NONE if it was never encoded
+        int find(String value) {
+            Integer code = codes.get(value);
+            return code == null ? NONE : code;
+        }
+
+        String decode(int code) {
+            return values[code];
+        }
+
+        int size() {
+            return codes.size();
+        }
+    }
+
+    /**
+     * Stores a listing under its listing id.
+     *
+     * @param book the listing; only its fields and id are kept
+     * @throws IllegalArgumentException if a listing with that id is already stored
+     */
+    @Override
+    public synchronized void add(Book book) {
+        if (rowById.get(book.getListingId()) != LongLongMap.MISSING) {
+            throw new IllegalArgumentException("listing " + book.getListingId() + " is already stored");
+        }
+        int row = allocate();
+        // all copies of a title share the spelling it was first listed with
+        int t = titles.encode(BookManager.titleKey(book.getTitle()), book.getTitle());
+        title[row] = t;
+        course[row] = courses.encode(book.getCourseCode());
+        seller[row] = sellers.encode(book.getSeller());
+        priceCents[row] = (int) Math.round(book.getPrice() * 100);
+        listingId[row] = book.getListingId();
+        rowById.put(book.getListingId(), row);
+
+        if (t == head.length) {
+            head = Arrays.copyOf(head, t * 2);
+            tail = Arrays.copyOf(tail, t * 2);
+            copies = Arrays.copyOf(copies, t * 2);
+        }
+        next[row] = NONE;
+        if (copies[t] == 0) {
+            prev[row] = NONE;
+            head[t] = row;
+            titleCount++;
+        } else {
+            prev[row] = tail[t];
+            next[tail[t]] = row;
+        }
+        tail[t] = row;
+        copies[t]++;
+        size++;
+    }
+
+    @Override
+    public synchronized List<Book> take(String key, int max) {
+        int t = titles.find(key);
+        List<Book> taken = new ArrayList<>();
+        while (t != NONE && copies[t] > 0 && taken.size() < max) {
+            int row = head[t];
+            taken.add(materialize(row));
+            release(row);
+        }
+        return taken;
+    }
+
+    @Override
+    public synchronized Book remove(Book book, boolean exact) {
+        long row = rowById.get(book.getListingId());
+        if (row != LongLongMap.MISSING && materialize((int) row).equals(book)) {
+            return removeRow((int) row);
+        }
+        if (exact) {
+            return null;
+        }
+        int t = titles.find(BookManager.titleKey(book.getTitle()));
+        int c = courses.find(book.getCourseCode());
+        int s = sellers.find(book.getSeller());
+        if (t == NONE || c == NONE || s == NONE || copies[t] == 0) {
+            return null;
+        }
+        for (int r = head[t]; r != NONE; r = next[r]) {
+            if (course[r] == c && seller[r] == s) {
+                return removeRow(r);
+            }
+        }
+        return null;
+    }
+
+    private Book removeRow(int row) {
+        Book book = materialize(row);
+        release(row);
+        return book;
+    }
+
+    @Override
+    public synchronized Book get(long id) {
+        long row = rowById.get(id);
+        return row == LongLongMap.MISSING ? null : materialize((int) row);
+    }
+
+    @Override
+    public synchronized int availableCount(String key) {
+        int t = titles.find(key);
+        return t == NONE ? 0 : copies[t];
+    }
+
+    @Override
+    public synchronized List<Book> copies(String key) {
+        int t = titles.find(key);
+        List<Book> list = new ArrayList<>();
+        if (t != NONE && copies[t] > 0) {
+            for (int row = head[t]; row != NONE; row = next[row]) {
+                list.add(materialize(row));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public synchronized List<String> titles() {
+        List<String> list = new ArrayList<>(titleCount);
+        for (int t = 0; t < titles.size(); t++) {
+            if (copies[t] > 0) {
+                list.add(titles.decode(t));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized int titleCount() {
+        return titleCount;
+    }
+
+    @Override
+    public synchronized List<Book> toList() {
+        List<Book> list = new ArrayList<>(size);
+        for (int row = 0; row < rows; row++) {
+            if (title[row] != NONE) {
+                list.add(materialize(row));
+            }
+        }
+        return list;
+    }
+
+    // the columns live on the heap only; BookManager persists them through its BookStore
+    @Override
+    public void sync() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private Book materialize(int row) {
+        return new Book(titles.decode(title[row]), courses.decode(course[row]), priceCents[row] / 100.0,
+                sellers.decode(seller[row]), listingId[row]);
+    }
+
+    private int allocate() {
+        if (freeRow != NONE) {
+            int row = freeRow;
+            freeRow = next[row];
+            return row;
+        }
+        if (rows == title.length) {
+            int capacity = rows * 2;
+            title = Arrays.copyOf(title, capacity);
+            course = Arrays.copyOf(course, capacity);
+            seller = Arrays.copyOf(seller, capacity);
+            priceCents = Arrays.copyOf(priceCents, capacity);
+            listingId = Arrays.copyOf(listingId, capacity);
+            prev = Arrays.copyOf(prev, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+        return rows++;
+    }
+
+    // unlinks a row from its title's chain and puts it on the free chain
+    private void release(int row) {
+        int t = title[row];
+        if (prev[row] == NONE) {
+            head[t] = next[row];
+        } else {
+            next[prev[row]] = next[row];
+        }
+        if (next[row] == NONE) {
+            tail[t] = prev[row];
+        } else {
+            prev[next[row]] = prev[row];
+        }
+        if (--copies[t] == 0) {
+            titleCount--;
+        }
+        size--;
+        rowById.remove(listingId[row]);
+        title[row] = NONE;
+        next[row] = freeRow;
+        freeRow = row;
+    }
+
+    // Compares retained heap of the object layout BookManager uses and of the columns:
+    // java -Xmx4g bookSystem.BookColumns [count ...]
+    public static void main(String[] args) {
+        BookColumns table = new BookColumns();
+        Book a1 = new Book("Algorithms", "CS101", 49.99, "Alice");
+        Book a2 = new Book("algorithms", "CS101", 45.00, "Bob");
+        table.add(a1);
+        table.add(a2);
+        table.add(new Book("Compilers", "CS420", 60, "Alice"));
+        assert table.size() == 3 && table.availableCount("algorithms") == 2 && table.titleCount() == 2;
+        Book stored = table.get(a1.getListingId());
+        assert stored.equals(a1) && stored.getListingId() == a1.getListingId() && stored.getPrice() == 49.99;
+        assert table.titles().equals(List.of("Algorithms", "Compilers"));
+        assert table.copies("algorithms").get(1).getListingId() == a2.getListingId();
+        assert table.remove(new Book("ALGORITHMS", "CS101", 0, "Bob"), true) == null;
+        assert table.remove(new Book("ALGORITHMS", "CS101", 0, "Bob"), false).getListingId() == a2.getListingId();
+        assert table.remove(a2, false) == null && table.get(a2.getListingId()) == null;
+        assert table.take("algorithms", 5).equals(List.of(a1)) && table.take("algorithms", 5).isEmpty();
+        assert table.titleCount() == 1;
+        Book databases = new Book("Databases", "CS301", 47.5, "Frank");
+        table.add(databases);
+        assert table.toList().size() == 2 && table.get(databases.getListingId()).equals(databases);
+        try {
+            table.add(databases);
+            assert false : "a listing id is stored once";
+        } catch (IllegalArgumentException expected) {
+        }
+        System.out.println("Column store tests passed.");
+
+        int[] counts = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[] {1_000_000, 10_000_000};
+        for (int count : counts) {
+            long base = usedHeap();
+            Map<String, MyTreeSet<Book>> byTitle = new HashMap<>();
+            List<Book> all = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Book book = listing(i);
+                byTitle.computeIfAbsent(BookManager.titleKey(book.getTitle()), k -> new MyTreeSet<>()).add(book);
+                all.add(book);
+            }
+            all.sort(null);
+            MyTreeSet<Book> sorted = MyTreeSet.fromSorted(all.iterator(), count);
+            all = null;
+            long objects = usedHeap() - base;
+            assert sorted.size() == count && byTitle.size() > 0;
+            sorted = null;
+            byTitle = null;
+
+            base = usedHeap();
+            BookColumns columns = new BookColumns();
+            for (int i = 0; i < count; i++) {
+                columns.add(listing(i));
+            }
+            long columnar = usedHeap() - base;
+            assert columns.size() == count;
+            columns = null;
+
+            System.out.printf("%,d listings: objects %,d MB (%d B/listing), columns %,d MB (%d B/listing)%n",
+                    count, objects >> 20, objects / count, columnar >> 20, columnar / count);
+        }
+    }
+
+    // about three copies per title, 400 courses and 5000 sellers, each listing with its own strings
+    private static Book listing(int i) {
+        return new Book("Title " + i / 3, "CS" + (100 + i % 400), 10 + (i % 9000) / 100.0, "Seller " + (i % 5000));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,521 @@
+package bookSystem;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Bulk reader and writer for the books.txt format, one
+ * title,courseCode,price,seller line per book.
+ *
+ * read splits the file into line-aligned chunks of a few megabytes, reads
+ * each with positional FileChannel reads and parses the chunks in parallel
+ * on a ForkJoinPool, returning the books in file order. Chunks are parsed
+ * into plain field tuples; the Books are built after the join, so their
+ * listing ids follow file order whatever order the chunks finished in. The
+ * parser works on
+ * the raw bytes: it finds the field boundaries itself, decodes only the
+ * three string fields and parses plain decimal prices without building a
+ * string. A field may be quoted ("Data Structures, 2nd ed."), with "" for a
+ * quote inside it, but a quoted field cannot span lines. Whitespace around
+ * unquoted fields is trimmed and lines without exactly four fields are
+ * skipped, as the old line-by-line reader did.
+ *
+ * write streams the rows through one reusable byte buffer straight to a
+ * FileChannel, quoting the fields that need it so titles with commas
+ * survive a round trip. Line breaks inside a field are written as spaces.
+ */
+public final class BookCsv {
+    private static final int CHUNK_BYTES = 4 << 20;
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final int FIELDS = 4;
+    private static final int FAST_PRICE_DIGITS = 15;   // below 2^53, so digits / 10^k rounds correctly
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+            1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    private BookCsv() {
+    }
+
+    // Reads every book in file, parsing on the common pool
+    public static List<Book> read(Path file) throws IOException {
+        return read(file, ForkJoinPool.commonPool(), CHUNK_BYTES);
+    }
+
+    /**
+     * Reads every book in file.
+     *
+     * @param pool       the pool the chunks are parsed on
+     * @param chunkBytes the size a chunk is cut at before it is extended to the end of its last line
+     * @return the books in file order
+     */
+    static List<Book> read(Path file, ForkJoinPool pool, int chunkBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel, chunkBytes);
+            Chunk[] parsed = new Chunk[bounds.length - 1];
+            try {
+                pool.invoke(new ParseTask(channel, bounds, parsed, 0, parsed.length));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            int count = 0;
+            for (Chunk chunk : parsed) {
+                count += chunk.count;
+            }
+            long id = Book.reserveListingIdBlock(count);
+            List<Book> books = new ArrayList<>(count);
+            for (Chunk chunk : parsed) {
+                for (int i = 0; i < chunk.count; i++) {
+                    books.add(new Book(chunk.strings[3 * i], chunk.strings[3 * i + 1], chunk.prices[i],
+                            chunk.strings[3 * i + 2], id++));
+                }
+            }
+            return books;
+        }
+    }
+
+    // the records of one chunk: title, course code and seller of record i at strings[3 * i, 3 * i + 3)
+    private static final class Chunk {
+        String[] strings;
+        double[] prices;
+        int count;
+
+        Chunk(int capacity) {
+            strings = new String[3 * capacity];
+            prices = new double[capacity];
+        }
+
+        void add(String title, String courseCode, double price, String seller) {
+            if (count == prices.length) {
+                strings = Arrays.copyOf(strings, 6 * count);
+                prices = Arrays.copyOf(prices, 2 * count);
+            }
+            strings[3 * count] = title;
+            strings[3 * count + 1] = courseCode;
+            strings[3 * count + 2] = seller;
+            prices[count++] = price;
+        }
+    }
+
+    // parses the chunks [lo, hi) into parsed[lo, hi)
+    private static final class ParseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient FileChannel channel;
+        private final long[] bounds;
+        private final transient Chunk[] parsed;   // output, filled in place
+        private final int lo;
+        private final int hi;
+
+        ParseTask(FileChannel channel, long[] bounds, Chunk[] parsed, int lo, int hi) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.parsed = parsed;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                try {
+                    parsed[lo] = parseChunk(channel, bounds[lo], bounds[lo + 1]);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new ParseTask(channel, bounds, parsed, lo, mid), new ParseTask(channel, bounds, parsed, mid, hi));
+        }
+    }
+
+    // start offsets of the chunks, each at the start of a line, followed by the file size
+    private static long[] chunkBounds(FileChannel channel, int chunkBytes) throws IOException {
+        long size = channel.size();
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer window = ByteBuffer.allocate(8192);
+        long next = chunkBytes;
+        while (next < size) {
+            long start = lineStartFrom(channel, next, size, window);
+            if (start >= size) {
+                break;
+            }
+            bounds.add(start);
+            next = start + chunkBytes;
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    // the first offset at or after from that starts a line, or size
+    private static long lineStartFrom(FileChannel channel, long from, long size, ByteBuffer window) throws IOException {
+        long position = from - 1;
+        while (position < size) {
+            window.clear();
+            int read = channel.read(window, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (window.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static Chunk parseChunk(FileChannel channel, long start, long end) throws IOException {
+        byte[] bytes = new byte[(int) (end - start)];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new EOFException("File shrank while reading: " + (start + buffer.position()));
+            }
+        }
+        Chunk chunk = new Chunk(bytes.length / 40 + 1);
+        int[] fields = new int[2 * FIELDS];     // start and end of each field, reused for every line
+        int lineStart = 0;
+        while (lineStart < bytes.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < bytes.length && bytes[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            parseLine(bytes, lineStart, lineEnd, fields, chunk);
+            lineStart = lineEnd + 1;
+        }
+        return chunk;
+    }
+
+    // adds the record on bytes[from, to) to chunk, unless the line is malformed
+    private static void parseLine(byte[] bytes, int from, int to, int[] fields, Chunk chunk) {
+        int field = 0;
+        int quotedFields = 0;     // bit i set if field i was quoted and holds a "" escape
+        int i = from;
+        while (true) {
+            while (i < to && isSpace(bytes[i])) {
+                i++;
+            }
+            int start;
+            int end;
+            if (i < to && bytes[i] == '"') {
+                start = ++i;
+                while (true) {
+                    if (i >= to) {
+                        return;     // unterminated quote
+                    }
+                    if (bytes[i] == '"') {
+                        if (i + 1 < to && bytes[i + 1] == '"') {
+                            quotedFields |= 1 << field;
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                end = i++;
+                while (i < to && isSpace(bytes[i])) {
+                    i++;
+                }
+                if (i < to && bytes[i] != ',') {
+                    return;     // text after the closing quote
+                }
+            } else {
+                start = i;
+                while (i < to && bytes[i] != ',') {
+                    i++;
+                }
+                end = i;
+                while (end > start && isSpace(bytes[end - 1])) {
+                    end--;
+                }
+            }
+            if (field == FIELDS) {
+                return;
+            }
+            fields[2 * field] = start;
+            fields[2 * field + 1] = end;
+            field++;
+            if (i >= to) {
+                break;
+            }
+            i++;    // the comma
+        }
+        if (field != FIELDS) {
+            return;
+        }
+        double price = parsePrice(bytes, fields[4], fields[5]);
+        if (Double.isNaN(price)) {
+            return;
+        }
+        chunk.add(string(bytes, fields, 0, quotedFields), string(bytes, fields, 1, quotedFields), price,
+                string(bytes, fields, 3, quotedFields));
+    }
+
+    // String.trim's notion of whitespace, which also covers the '\r' of a CRLF line end
+    private static boolean isSpace(byte b) {
+        return b >= 0 && b <= ' ';
+    }
+
+    private static String string(byte[] bytes, int[] fields, int field, int quotedFields) {
+        String s = new String(bytes, fields[2 * field], fields[2 * field + 1] - fields[2 * field], StandardCharsets.UTF_8);
+        return (quotedFields & 1 << field) != 0 ? s.replace("\"\"", "\"") : s;
+    }
+
+    // a plain decimal like 49.99 is parsed in place; anything else goes through Double.parseDouble.
+    // Returns NaN if the field is not a number.
+    private static double parsePrice(byte[] bytes, int from, int to) {
+        long digits = 0;
+        int count = 0;
+        int fraction = -1;      // digits after the point, -1 before it
+        boolean negative = from < to && bytes[from] == '-';
+        for (int i = negative ? from + 1 : from; i < to; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                digits = digits * 10 + (b - '0');
+                count++;
+                if (fraction >= 0) {
+                    fraction++;
+                }
+            } else if (b == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                count = Integer.MAX_VALUE;  // exponent or junk
+                break;
+            }
+        }
+        if (count > 0 && count <= FAST_PRICE_DIGITS) {
+            double value = fraction > 0 ? digits / POWERS_OF_TEN[fraction] : digits;
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(new String(bytes, from, to - from, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Writes one line per book to file, replacing its contents.
+     *
+     * @return the number of bytes written
+     */
+    public static long write(Path file, Iterable<Book> books) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            RowWriter out = new RowWriter(channel);
+            for (Book book : books) {
+                out.field(book.getTitle());
+                out.put(',');
+                out.field(book.getCourseCode());
+                out.put(',');
+                out.price(book.getPrice());
+                out.put(',');
+                out.field(book.getSeller());
+                out.put('\n');
+            }
+            out.flush();
+            return out.written;
+        }
+    }
+
+    // encodes rows into a fixed buffer and hands it to the channel whenever it fills up
+    private static final class RowWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        long written;
+
+        RowWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void put(char c) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.put((byte) c);
+        }
+
+        // a string field, quoted if the reader would otherwise split or trim it
+        void field(String s) throws IOException {
+            boolean quote = !s.isEmpty() && (s.charAt(0) <= ' ' || s.charAt(s.length() - 1) <= ' ');
+            for (int i = 0; i < s.length() && !quote; i++) {
+                char c = s.charAt(i);
+                quote = c == ',' || c == '"';
+            }
+            if (quote) {
+                put('"');
+            }
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (buffer.remaining() < 4) {
+                    flush();
+                }
+                if (c < 0x80) {
+                    if (c == '\n' || c == '\r') {
+                        c = ' ';
+                    } else if (c == '"') {
+                        buffer.put((byte) '"');
+                    }
+                    buffer.put((byte) c);
+                } else if (c < 0x800) {
+                    buffer.put((byte) (0xC0 | c >> 6));
+                    buffer.put((byte) (0x80 | c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buffer.put((byte) (0xF0 | cp >> 18));
+                    buffer.put((byte) (0x80 | cp >> 12 & 0x3F));
+                    buffer.put((byte) (0x80 | cp >> 6 & 0x3F));
+                    buffer.put((byte) (0x80 | cp & 0x3F));
+                } else {
+                    if (Character.isSurrogate(c)) {
+                        c = '?';    // unpaired, as String.getBytes would write it
+                    }
+                    buffer.put((byte) (0xE0 | c >> 12));
+                    buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+                    buffer.put((byte) (0x80 | c & 0x3F));
+                }
+            }
+            if (quote) {
+                put('"');
+            }
+        }
+
+        // the price as Double.toString writes it; whole cents below 10^7 are formatted without a string
+        void price(double price) throws IOException {
+            long cents = Math.round(price * 100);
+            if (price < 1e-3 || price >= 1e7 || cents / 100.0 != price) {
+                String s = Double.toString(price);
+                for (int i = 0; i < s.length(); i++) {
+                    put(s.charAt(i));
+                }
+                return;
+            }
+            digits(cents / 100);
+            put('.');
+            int fraction = (int) (cents % 100);
+            put((char) ('0' + fraction / 10));
+            if (fraction % 10 != 0) {
+                put((char) ('0' + fraction % 10));
+            }
+        }
+
+        private void digits(long n) throws IOException {
+            if (n >= 10) {
+                digits(n / 10);
+            }
+            put((char) ('0' + n % 10));
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    // Round-trips awkward rows and compares both directions with the line-at-a-time code on a
+    // generated catalogue. With a file argument, times reading that file instead.
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0) {
+            Path file = Paths.get(args[0]);
+            long start = System.nanoTime();
+            int count = read(file).size();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%,d books from %,d bytes in %.2f s: %.0f MB/s on %d threads%n", count, Files.size(file),
+                    seconds, Files.size(file) / seconds / 1e6, ForkJoinPool.getCommonPoolParallelism());
+            return;
+        }
+        Path dir = Files.createTempDirectory("bookcsv");
+        Path file = dir.resolve("books.txt");
+        List<Book> awkward = List.of(
+                new Book("Data Structures, 2nd ed.", "CS201", 59.99, "Ann"),
+                new Book("The \"Dragon\" Book", "CS420", 1e7, "Bo, Jr."),
+                new Book(" Spaced ", "CS100", 0.0005, "Zoë 🦉"),
+                new Book("Plain", "", 20.0, "Cy"));
+        write(file, awkward);
+        List<Book> back = read(file);
+        assert back.equals(awkward) : back;
+        for (int i = 0; i < back.size(); i++) {
+            assert back.get(i).getPrice() == awkward.get(i).getPrice() && back.get(i).getCourseCode().equals(awkward.get(i).getCourseCode());
+        }
+
+        // a BookManager without a snapshot loads the CSV file, which need not be sorted
+        Path unsorted = Files.createTempFile("unsorted", ".txt");
+        write(unsorted, awkward);
+        BookManager manager = new BookManager(unsorted.toString());
+        List<Book> sorted = new ArrayList<>(awkward);
+        Collections.sort(sorted);
+        assert manager.getAllBooks().equals(sorted) && manager.getBook("data structures, 2nd ED.") != null;
+        manager.close();
+
+        // CRLF, blank, malformed and unterminated lines
+        Files.write(file, ("A,CS1,1.5,X\r\n\n\"Bad,CS2,2,Y\nToo,many,3,fields,here\nNo price,CS3,abc,Z\n"
+                + " B , CS4 , 2.25 , W \nLast,CS5,3,V").getBytes(StandardCharsets.UTF_8));
+        assert read(file).toString().equals(List.of(new Book("A", "CS1", 1.5, "X"), new Book("B", "CS4", 2.25, "W"),
+                new Book("Last", "CS5", 3, "V")).toString()) : read(file);
+
+        // a generated catalogue, cut into many small chunks, against split(",") and Double.toString
+        BookDataGenerator generator = new BookDataGenerator(5, 1_000_000);
+        List<Book> catalogue = new ArrayList<>();
+        Random random = new Random(5);
+        for (int i = 0; i < 1_000_000; i++) {
+            Book book = generator.book(i);
+            double price = i % 10 == 0 ? random.nextDouble() * 1e8 : book.getPrice();
+            catalogue.add(new Book(book.getTitle(), book.getCourseCode(), price, book.getSeller()));
+        }
+        long start = System.nanoTime();
+        try (BufferedWriter bw = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Book book : catalogue) {
+                bw.write(book.getTitle() + "," + book.getCourseCode() + "," + book.getPrice() + "," + book.getSeller());
+                bw.newLine();
+            }
+        }
+        long writerMs = (System.nanoTime() - start) / 1_000_000;
+        byte[] expected = Files.readAllBytes(file);
+        start = System.nanoTime();
+        write(file, catalogue);
+        long streamedMs = (System.nanoTime() - start) / 1_000_000;
+        assert Arrays.equals(Files.readAllBytes(file), expected);
+
+        start = System.nanoTime();
+        List<Book> lines = new ArrayList<>();
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(",");
+                lines.add(new Book(parts[0].trim(), parts[1].trim(), Double.parseDouble(parts[2].trim()), parts[3].trim()));
+            }
+        }
+        long readerMs = (System.nanoTime() - start) / 1_000_000;
+        start = System.nanoTime();
+        List<Book> parsed = read(file);
+        long parallelMs = (System.nanoTime() - start) / 1_000_000;
+        assert parsed.equals(lines);
+        List<Book> small = read(file, ForkJoinPool.commonPool(), 4096);
+        for (int i = 0; i < lines.size(); i++) {
+            assert parsed.get(i).getPrice() == lines.get(i).getPrice() && small.get(i).equals(lines.get(i)) : lines.get(i);
+            // ids follow file order, however the chunks were scheduled
+            assert i == 0 || small.get(i).getListingId() == small.get(i - 1).getListingId() + 1;
+        }
+        System.out.println("BookCsv tests passed.");
+        System.out.printf("%,d bytes: read %d ms line by line, %d ms in chunks on %d threads; "
+                        + "written %d ms with a BufferedWriter, %d ms streamed%n", expected.length, readerMs, parallelMs,
+                ForkJoinPool.getCommonPoolParallelism(), writerMs, streamedMs);
+        Files.delete(file);
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,140 @@
+package bookSystem;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Deterministic synthetic catalogues for benchmarks and load tests, written
+ * in the books.txt format (title,courseCode,price,seller per line).
+ *
+ * Titles are two or three random words, so they share about as few
+ * trigrams as real titles do, and are drawn with a skew: a few titles
+ * have many copies and most have one or two, as on a real exchange. Every
+ * value is a pure function of the seed and the listing number, so the same
+ * arguments always give the same file, and titles never contain digits,
+ * which makes missingTitle a guaranteed miss.
+ */
+public class BookDataGenerator {
+    private static final String[] DEPARTMENTS = {"CS", "MATH", "PHYS", "CHEM", "BIO", "HIST", "ECON", "ENG", "PSY", "ART"};
+
+    private final long seed;
+    private final int titles;
+    private final int sellers;
+
+    // About three listings per title and forty per seller for the given catalogue size
+    public BookDataGenerator(long seed, int listings) {
+        this(seed, Math.max(1, listings / 3), Math.max(1, listings / 40));
+    }
+
+    public BookDataGenerator(long seed, int titles, int sellers) {
+        this.seed = seed;
+        this.titles = titles;
+        this.sellers = sellers;
+    }
+
+    public int titleCount() {
+        return titles;
+    }
+
+    // The i-th listing
+    public Book book(long i) {
+        Random random = random(i, 1);
+        // cubing a uniform number favours the low title numbers
+        double u = random.nextDouble();
+        int title = (int) (u * u * u * titles);
+        String course = DEPARTMENTS[title % DEPARTMENTS.length] + (100 + title % 400);
+        double price = (500 + random.nextInt(14_500)) / 100.0;
+        return new Book(title(title), course, price, seller(random.nextInt(sellers)));
+    }
+
+    // The title with the given number, from 0 to titleCount() - 1
+    public String title(int i) {
+        Random random = random(i, 2);
+        String title = word(random) + " " + word(random);
+        return random.nextInt(3) == 0 ? title + " " + word(random) : title;
+    }
+
+    // A title no listing of any generator has
+    public String missingTitle(int i) {
+        return "Missing " + i;
+    }
+
+    // A request for a title drawn like the listings' titles
+    public Request request(long i) {
+        Random random = random(i, 3);
+        double u = random.nextDouble();
+        return new Request(title((int) (u * u * u * titles)), seller(random.nextInt(sellers)), 1 + random.nextInt(10));
+    }
+
+    private String seller(int i) {
+        Random random = random(i, 4);
+        return word(random) + " " + word(random);
+    }
+
+    // a generator for one value, independent of every other (i, stream) pair
+    private Random random(long i, int stream) {
+        long h = (seed * 31 + stream) * 0x9E3779B97F4A7C15L + i;
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        return new Random(h ^ (h >>> 33));
+    }
+
+    private static String word(Random random) {
+        char[] letters = new char[3 + random.nextInt(8)];
+        for (int i = 0; i < letters.length; i++) {
+            letters[i] = (char) ('a' + random.nextInt(26));
+        }
+        letters[0] = Character.toUpperCase(letters[0]);
+        return new String(letters);
+    }
+
+    /**
+     * Writes listings 0 to count - 1 to a books.txt-style file.
+     *
+     * @return the number of bytes written
+     */
+    public long write(Path file, long count) throws IOException {
+        try (BufferedWriter bw = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (long i = 0; i < count; i++) {
+                Book book = book(i);
+                bw.write(book.getTitle() + "," + book.getCourseCode() + "," + book.getPrice() + "," + book.getSeller());
+                bw.newLine();
+            }
+        }
+        return Files.size(file);
+    }
+
+    // java bookSystem.BookDataGenerator count [file] [seed]
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            // self-check on a small catalogue
+            BookDataGenerator generator = new BookDataGenerator(1, 30_000);
+            assert generator.book(1234).equals(new BookDataGenerator(1, 30_000).book(1234));
+            Map<String, Integer> copies = new HashMap<>();
+            for (int i = 0; i < 30_000; i++) {
+                Book book = generator.book(i);
+                assert !book.getTitle().contains(",") && !book.getSeller().contains(",");
+                assert !book.getTitle().matches(".*\\d.*");
+                copies.merge(book.getTitle(), 1, Integer::sum);
+            }
+            int most = Collections.max(copies.values());
+            assert copies.size() > 3000 && most > 20 : copies.size() + " titles, at most " + most;
+            Path file = Files.createTempFile("generated", ".txt");
+            generator.write(file, 1000);
+            BookManager manager = new BookManager(file.toString());
+            assert manager.size() == 1000 : manager.size();
+            manager.close();
+            System.out.println("Data generator tests passed: " + copies.size() + " titles, up to " + most + " copies.");
+            return;
+        }
+        long count = Long.parseLong(args[0]);
+        Path file = Paths.get(args.length > 1 ? args[1] : "books-" + count + ".txt");
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        long start = System.nanoTime();
+        long bytes = new BookDataGenerator(seed, (int) Math.min(Integer.MAX_VALUE, count)).write(file, count);
+        System.out.printf("%,d listings, %,d bytes written to %s in %d ms%n",
+                count, bytes, file, (System.nanoTime() - start) / 1_000_000);
+    }
+}
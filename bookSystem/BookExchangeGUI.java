@@ -3,13 +3,32 @@ package bookSystem;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.util.ArrayList;
 import java.util.List;
-
-public class BookExchangeGUI extends JFrame {
-    private BookManager bookManager = new BookManager(); 
-    private RequestManager requestManager = new RequestManager(); 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Swing front end. Every BookManager and RequestManager call runs through
+ * their *Async methods, and results come back to the Event Dispatch Thread
+ * with SwingUtilities.invokeLater, so the window stays responsive while
+ * requests are processed or the catalogue is saved. The catalogue is shown
+ * in a JTable over a BookTableModel, which only loads the visible rows.
+ * The managers themselves load the catalogue and the waiting requests on
+ * the async pool too; the buttons are enabled once both are ready.
+ */
+public final class BookExchangeGUI extends JFrame {
+    private static final long serialVersionUID = 1L;
+
+    // set on the Event Dispatch Thread once loaded
+    private transient BookManager bookManager;
+    private transient RequestManager requestManager;
 
     private JTextArea displayArea;
+    private BookTableModel bookTable;
+    private JTable table;
+    private JPanel cards;               // shows either the messages or the book table
+    private JPanel buttonPanel;
 
     // Method to clear the display area
     private void clearDisplay() {
@@ -34,6 +53,18 @@ public class BookExchangeGUI extends JFrame {
         JScrollPane scrollPane = new JScrollPane(displayArea);
         scrollPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 
+        table = new JTable();   // gets its BookTableModel once the catalogue is loaded
+        table.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        table.setRowHeight(22);
+        table.setFillsViewportHeight(true);
+        JScrollPane tableScrollPane = new JScrollPane(table);
+        tableScrollPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+        cards = new JPanel(new CardLayout());
+        cards.setOpaque(false);
+        cards.add(scrollPane, "messages");
+        cards.add(tableScrollPane, "books");
+
         // Gradient center panel
         JPanel centerPanel = new JPanel(new BorderLayout()) {
             @Override
@@ -52,10 +83,10 @@ public class BookExchangeGUI extends JFrame {
             BorderFactory.createLineBorder(new Color(180, 200, 220), 2)
         ));
         centerPanel.setOpaque(false);
-        centerPanel.add(scrollPane, BorderLayout.CENTER);
+        centerPanel.add(cards, BorderLayout.CENTER);
 
         // Button panel styling
-        JPanel buttonPanel = new JPanel(new GridLayout(1, 4, 10, 10));
+        buttonPanel = new JPanel(new GridLayout(1, 4, 10, 10));
         buttonPanel.setBorder(BorderFactory.createEmptyBorder(10, 20, 10, 20));
         buttonPanel.setBackground(new Color(225, 240, 255));
 
@@ -70,9 +101,28 @@ public class BookExchangeGUI extends JFrame {
         add(centerPanel, BorderLayout.CENTER);
         add(buttonPanel, BorderLayout.SOUTH);
 
+        setButtonsEnabled(false);
+        displayArea.setText("Loading the catalogue...\n");
+        CompletableFuture<BookManager> books = BookManager.async(BookManager::new);
+        CompletableFuture<RequestManager> requests = BookManager.async(() -> new RequestManager("requests.txt"));
+        onEdt(CompletableFuture.allOf(books, requests), done -> {
+            bookManager = books.join();
+            requestManager = requests.join();
+            bookTable = new BookTableModel(bookManager, error -> displayError("Error: " + error.getMessage()));
+            table.setModel(bookTable);
+            setButtonsEnabled(true);
+            displaySuccess("Catalogue loaded.");
+        });
+
         setVisible(true);
     }
 
+    private void setButtonsEnabled(boolean enabled) {
+        for (Component button : buttonPanel.getComponents()) {
+            button.setEnabled(enabled);
+        }
+    }
+
     // Helper to create a styled JButton with better colors and visibility
     private JButton createStyledButton(String text, Color bg, Color fg, java.awt.event.ActionListener action) {
         JButton button = new JButton(text);
@@ -130,8 +180,9 @@ public class BookExchangeGUI extends JFrame {
             double price = Double.parseDouble(priceStr);
             int option = JOptionPane.showConfirmDialog(this, "Are you sure you want to list this book?");
             if (option == JOptionPane.YES_OPTION) {
-                bookManager.addBook(new Book(title, course, price, seller));
-                displaySuccess("Book listed successfully!");
+                displaySuccess("Listing book...");
+                onEdt(bookManager.addBookAsync(new Book(title, course, price, seller)),
+                        done -> displaySuccess("Book listed successfully!"));
             }
         } catch (NumberFormatException e) {
             displayError("Invalid price input.");
@@ -163,60 +214,87 @@ public class BookExchangeGUI extends JFrame {
 
             int option = JOptionPane.showConfirmDialog(this, "Are you sure you want to submit this request?");
             if (option == JOptionPane.YES_OPTION) {
-                requestManager.addRequest(new Request(title, requester, urgency));
-                displaySuccess("📥 Request submitted.");
+                onEdt(requestManager.addRequestAsync(new Request(title, requester, urgency)),
+                        done -> displaySuccess("📥 Request submitted."));
             }
         } catch (NumberFormatException e) {
             displayError("Invalid urgency input.");
         }
     }
 
-    // Method to view all books
+    // Method to view all books; the table loads the rows as they are scrolled into view
     private void viewBooks() {
-        List<Book> books = bookManager.getAllBooks();
-        displayArea.setText(""); // Clear previous content
-        if (books.isEmpty()) {
-            displayError("No books available.");
-            return;
-        }
-        
-        displayArea.append("AVAILABLE BOOKS:   [course title (price) - (course code),  (seller name) ] \n\n");
-        for (Book b : books) {
-            displayArea.append("=>  [ " + b + " ] \n");
-        }
+        onEdt(bookManager.sizeAsync(), size -> {
+            if (size == 0) {
+                displayError("No books available.");
+                return;
+            }
+            bookTable.refresh();
+            ((CardLayout) cards.getLayout()).show(cards, "books");
+        });
     }
 
-    // Method to process all requests
     // Method to process all requests
     private void processRequests() {
-        // Process requests and remove matched books from bookManager inside this method
-        List<String> logs = requestManager.processRequests(bookManager);
-
-        if (logs.isEmpty()) {
-            displayError("No requests to process.");
-            return;
-        }
+        displayArea.setText("Processing Requests:\n\n");
+        showMessages();
+        // matches are published as they are made; lines arriving together are appended in one event
+        List<String> pending = new ArrayList<>();
+        CompletableFuture<List<String>> processing = requestManager.processRequestsAsync(bookManager, line -> {
+            boolean schedule;
+            synchronized (pending) {
+                schedule = pending.isEmpty();
+                pending.add(line);
+            }
+            if (schedule) {
+                SwingUtilities.invokeLater(() -> {
+                    StringBuilder text = new StringBuilder();
+                    synchronized (pending) {
+                        for (String log : pending) {
+                            text.append(log).append("\n");
+                        }
+                        pending.clear();
+                    }
+                    displayArea.append(text.toString());
+                });
+            }
+        });
+        onEdt(processing, logs -> {
+            if (logs.isEmpty()) {
+                displayError("No requests to process.");
+                return;
+            }
 
-        // Ask user for confirmation before proceeding
-        int confirm = JOptionPane.showConfirmDialog(this, "Are you sure you want to proceed?");
-        if (confirm == JOptionPane.YES_OPTION) {
-            // Save the updated book list to file AFTER removals have happened
-            bookManager.saveBooks();
+            // Ask user for confirmation before proceeding
+            int confirm = JOptionPane.showConfirmDialog(this, "Are you sure you want to proceed?");
+            if (confirm == JOptionPane.YES_OPTION) {
+                // Save the updated book list to file AFTER removals have happened
+                onEdt(bookManager.saveBooksAsync(), done -> displayArea.append("\nItem is ordered successfully.\n"));
+            }
+        });
+    }
 
-            // Show confirmation message
-            displaySuccess("Item is ordered successfully.");
-        }
+    // Runs then on the Event Dispatch Thread with the result of an async operation, or shows its error
+    private <T> void onEdt(CompletableFuture<T> future, java.util.function.Consumer<T> then) {
+        future.whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            if (error == null) {
+                then.accept(result);
+            } else {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                cause.printStackTrace();
+                displayError("Error: " + cause.getMessage());
+            }
+        }));
+    }
 
-        // Display logs in the GUI
-        displayArea.setText("Processing Requests:\n\n");
-        for (String log : logs) {
-            displayArea.append(log + "\n");
-        }
+    private void showMessages() {
+        ((CardLayout) cards.getLayout()).show(cards, "messages");
     }
 
 
     // Method to display error messages
     private void displayError(String message) {
+        showMessages();
         displayArea.setText(""); 
         displayArea.setForeground(Color.RED);
         displayArea.append(message + "\n");
@@ -225,6 +303,7 @@ public class BookExchangeGUI extends JFrame {
 
     // Method to display success messages
     private void displaySuccess(String message) {
+        showMessages();
         displayArea.setText(""); 
         displayArea.setForeground(new Color(0, 128, 0)); // Dark Green
         displayArea.append(message + "\n");
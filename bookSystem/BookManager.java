@@ -1,99 +1,1002 @@
 package bookSystem;
 
 import java.io.*;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class BookManager {
-    private Map<String, List<Book>> books = new HashMap<>();
-    private MyTreeSet<Book> sortedBooks = new MyTreeSet<>();
+/**
+ * Keeps the available books, indexed by title and in sorted order, and
+ * persists every change through a BookStore.
+ *
+ * BookManager is safe to use from several threads. Listings are guarded by
+ * one of STRIPES locks picked by the normalized title, so operations on
+ * different titles run in parallel and getBook is an atomic take. The
+ * sorted view is either a PersistentTreeSet, whose writers take a short
+ * lock and whose readers (getAllBooks, paging, saveBooks) work on an O(1)
+ * immutable snapshot with no lock and no copying, or a LockFreeSkipList
+ * that needs no lock at all.
+ *
+ * A writer changes the in-memory catalogue and appends its log record under
+ * the shared side of logLock; saveBooks and log compaction read the
+ * catalogue and roll the log under the exclusive side, so a snapshot never
+ * holds a change whose record lands in the log that replaces it, or misses
+ * one whose record is in the log it drops.
+ *
+ * The *Async methods run the same operations on a shared pool of daemon
+ * threads and return a CompletableFuture, so a GUI never blocks its event
+ * thread on disk or on a large catalogue.
+ *
+ * With Storage.COLUMNS the listings live in a BookColumns table, and with
+ * Storage.SLAB in the memory-mapped files of a BookSlabStore, instead of one
+ * Book object each in the maps and trees above. Sorted reads then come from
+ * a sorted copy of the table that is rebuilt after each change, held
+ * through a soft reference, and queries scan it; getBook and takeBooks take
+ * the oldest copies of a title rather than the first in catalogue order.
+ * The slab files are themselves the durable catalogue, so SLAB writes no
+ * operation log: the first open imports the snapshot, log or CSV into them,
+ * and saveBooks still writes a snapshot and exports the CSV.
+ *
+ * Latencies of add, get, remove, take, save and load are recorded in
+ * Metrics under "books.*" and "store.*".
+ */
+public final class BookManager {
+    private static final int STRIPES = 64;
+    private static final LatencyHistogram ADD = Metrics.histogram("books.add");
+    private static final LatencyHistogram GET = Metrics.histogram("books.get");
+    private static final LatencyHistogram REMOVE = Metrics.histogram("books.remove");
+    private static final LatencyHistogram TAKE = Metrics.histogram("books.take");
+    private static final LatencyHistogram SAVE = Metrics.histogram("store.save");
+    private static final LatencyHistogram LOAD = Metrics.histogram("store.load");
+    // Runs the *Async operations of every BookManager and RequestManager
+    private static final ExecutorService ASYNC = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+                private final AtomicLong count = new AtomicLong();
+
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "book-async-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    // Implementation behind the sorted view, chosen at construction
+    public enum SortedIndex { TREE, SKIP_LIST }
+
+    // Where the listings are kept, chosen at construction: Book objects in the maps and the
+    // sorted view, the primitive columns of a BookColumns table, or BookSlabStore files next
+    // to the catalogue file (books.slab64, ... for books.txt)
+    public enum Storage { OBJECTS, COLUMNS, SLAB }
+
+    private final Map<String, MyTreeSet<Book>> books = new ConcurrentHashMap<>();
+    private final SortedIndex sortedIndex;
+    private SetADT<Book> sortedBooks;
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final ReentrantLock sortedLock = new ReentrantLock();
+    private final ReentrantReadWriteLock logLock = new ReentrantReadWriteLock();
     private static final String FILE_NAME = "books.txt"; // File to store books data
+    private final BookStore store;
+    private final List<Consumer<Book>> listingListeners = new CopyOnWriteArrayList<>();
+    private final TitleSearch titleSearch = new TitleSearch();   // titles with at least one copy
+    private final SecondaryIndexes secondary = new SecondaryIndexes();   // course, seller and price
+    // available listings by id, striped by id; each map is guarded by its own monitor
+    private final List<LongHashMap<Book>> byListingId = new ArrayList<>(STRIPES);
+    private final Storage storage;
+    private final ListingTable table;   // null with Storage.OBJECTS
+    private final AtomicLong tableVersion = new AtomicLong();   // bumped after each change to table
+    private volatile SoftReference<SortedListings> sortedListings = new SoftReference<>(null);
+
+    // the table's listings in sorted order, as of a version
+    private static final class SortedListings {
+        final long version;
+        final List<Book> books;
+
+        SortedListings(long version, List<Book> books) {
+            this.version = version;
+            this.books = books;
+        }
+    }
 
     public BookManager() {
+        this(FILE_NAME);
+    }
+
+    public BookManager(String fileName) {
+        this(fileName, SortedIndex.TREE);
+    }
+
+    public BookManager(String fileName, SortedIndex sortedIndex) {
+        this(fileName, sortedIndex, Storage.OBJECTS);
+    }
+
+    public BookManager(String fileName, Storage storage) {
+        this(fileName, SortedIndex.TREE, storage);
+    }
+
+    private BookManager(String fileName, SortedIndex sortedIndex, Storage storage) {
+        this.sortedIndex = sortedIndex;
+        this.storage = storage;
+        table = openTable(storage, fileName);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+            byListingId.add(new LongHashMap<>());
+        }
+        store = new BookStore(fileName);
         loadBooks();
+        // the gauges follow the most recently created BookManager
+        Metrics.gauge("books.available", this::size);
+        Metrics.gauge("books.titles", this::titleCount);
+        if (table == null && sortedIndex == SortedIndex.TREE) {
+            Metrics.gauge("books.tree.height", this::treeHeight);
+        }
     }
 
-    // Load books from the file
+    private static ListingTable openTable(Storage storage, String fileName) {
+        if (storage == Storage.COLUMNS) {
+            return new BookColumns();
+        }
+        if (storage == Storage.SLAB) {
+            try {
+                return new BookSlabStore(fileName.endsWith(".txt") ? fileName.substring(0, fileName.length() - 4) : fileName);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return null;
+    }
+
+    // Normalized form of a title used as the index key
+    static String titleKey(String title) {
+        return title.toLowerCase(Locale.ROOT);
+    }
+
+    private ReentrantLock stripeFor(String key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    // Load books from the snapshot file and replay the operation log on top
     private void loadBooks() {
-        try (BufferedReader br = new BufferedReader(new FileReader(FILE_NAME))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length == 4) {
-                    String title = parts[0].trim();
-                    String course = parts[1].trim();
-                    double price = Double.parseDouble(parts[2].trim());
-                    String seller = parts[3].trim();
-                    Book book = new Book(title, course, price, seller);
-                    addBook(book);  // Add to the internal structure
+        long start = Metrics.start();
+        try {
+            BookSlabStore slab = storage == Storage.SLAB ? (BookSlabStore) table : null;
+            if (slab != null && slab.loaded()) {
+                // the slab files are the catalogue; the store only opens its (empty) log
+                store.recover(snapshot -> { }, book -> { }, book -> { });
+                for (String title : table.titles()) {
+                    titleSearch.add(title);
+                }
+                tableVersion.incrementAndGet();
+                LOAD.recordSince(start);
+                return;
+            }
+            if (slab != null) {
+                slab.clear();   // left by an import that was cut short
+            }
+            store.recover(snapshot -> {
+                if (table != null) {
+                    for (Book book : snapshot) {
+                        table.add(book);
+                    }
+                    for (String title : table.titles()) {
+                        titleSearch.add(title);
+                    }
+                    tableVersion.incrementAndGet();
+                    return;
+                }
+                // decode each record once; a snapshot is written in sorted order, while a
+                // catalogue imported from CSV is in file order and is sorted in parallel
+                Book[] array = snapshot.toArray(new Book[0]);
+                if (!isSorted(array)) {
+                    Arrays.parallelSort(array);
+                }
+                List<Book> loaded = Arrays.asList(array);
+                for (Book book : loaded) {
+                    books.computeIfAbsent(titleKey(book.getTitle()), k -> new MyTreeSet<>()).add(book);
                 }
+                for (MyTreeSet<Book> copies : books.values()) {
+                    titleSearch.add(copies.get(0).getTitle());
+                }
+                secondary.addAll(loaded);
+                for (Book book : loaded) {
+                    putListing(book);
+                }
+                if (sortedIndex == SortedIndex.SKIP_LIST) {
+                    sortedBooks = new LockFreeSkipList<>();
+                    for (Book book : loaded) {
+                        sortedBooks.add(book);
+                    }
+                } else {
+                    sortedBooks = PersistentTreeSet.fromSorted(loaded.iterator(), loaded.size());
+                }
+            }, this::index, this::unindex);
+            if (slab != null) {
+                slab.markLoaded();
             }
         } catch (IOException e) {
-            // File not found, ignore and proceed with an empty list
+            e.printStackTrace();
+        }
+        LOAD.recordSince(start);
+    }
+
+    private static boolean isSorted(Book[] books) {
+        for (int i = 1; i < books.length; i++) {
+            if (books[i - 1].compareTo(books[i]) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Flushes the operation log and stops the store's background thread; the manager must not be used afterwards
+    public void close() {
+        store.close();
+        if (table != null) {
+            try {
+                table.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 
-    // Save books to the file
+    // Write a full snapshot of the catalogue, truncate the operation log and export books.txt
     public void saveBooks() {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(FILE_NAME))) {
-            for (Book book : sortedBooks) {
-                bw.write(book.getTitle() + "," + book.getCourseCode() + "," + book.getPrice() + "," + book.getSeller());
-                bw.newLine();
+        long start = Metrics.start();
+        try {
+            List<Book> all;
+            if (table != null) {
+                table.sync();
+            }
+            logLock.writeLock().lock();
+            try {
+                all = store.checkpoint(this::getAllBooks);
+            } finally {
+                logLock.writeLock().unlock();
             }
+            store.exportCsv(all);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        SAVE.recordSince(start);
     }
 
     // Add a new book
     public void addBook(Book book) {
-        String title = book.getTitle().toLowerCase();
-        books.computeIfAbsent(title, k -> new ArrayList<>()).add(book);
-        sortedBooks.add(book);
-        saveBooks();  // Save books to file after adding a new one
+        long start = Metrics.start();
+        ReentrantLock lock = stripeFor(titleKey(book.getTitle()));
+        boolean added;
+        lock.lock();
+        logLock.readLock().lock();
+        try {
+            added = index(book);
+            if (added) {
+                log(book, true);
+            }
+        } finally {
+            logLock.readLock().unlock();
+            lock.unlock();
+        }
+        if (!added) {
+            return;   // this listing is already available
+        }
+        maybeCompact();
+        ADD.recordSince(start);
+        for (Consumer<Book> listener : listingListeners) {
+            listener.accept(book);
+        }
     }
 
-    // Get and remove a book by title
+    // Number of copies available for a normalized title key
+    public int availableCount(String key) {
+        ReentrantLock lock = stripeFor(key);
+        lock.lock();
+        try {
+            if (table != null) {
+                return table.availableCount(key);
+            }
+            MyTreeSet<Book> copies = books.get(key);
+            return copies == null ? 0 : copies.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Registers a listener called with every book published by addBook, after it is available
+    public void addListingListener(Consumer<Book> listener) {
+        listingListeners.add(listener);
+    }
+
+    // Unregisters a listener added with addListingListener
+    public void removeListingListener(Consumer<Book> listener) {
+        listingListeners.remove(listener);
+    }
+
+    // Get and remove a book by title, the first copy in catalogue order (the oldest copy with
+    // Storage.COLUMNS); two callers never receive the same copy
     public Book getBook(String title) {
-        String key = title.toLowerCase();
-        List<Book> bookList = books.get(key);
-        if (bookList != null && !bookList.isEmpty()) {
-            Book book = bookList.remove(0);
-            sortedBooks.remove(book);
-            saveBooks();  // Save after removing
-            return book;
+        long start = Metrics.start();
+        String key = titleKey(title);
+        ReentrantLock lock = stripeFor(key);
+        Book book = null;
+        lock.lock();
+        logLock.readLock().lock();
+        try {
+            if (table != null) {
+                List<Book> taken = table.take(key, 1);
+                if (!taken.isEmpty()) {
+                    book = taken.get(0);
+                    tableChanged(key);
+                }
+            } else {
+                MyTreeSet<Book> copies = books.get(key);
+                if (copies != null && !copies.isEmpty()) {
+                    book = copies.get(0);
+                    copies.remove(book);
+                    if (copies.isEmpty()) {
+                        books.remove(key);
+                        titleSearch.remove(key);
+                    }
+                    removeIndexed(book);
+                }
+            }
+            if (book != null) {
+                log(book, false);
+            }
+        } finally {
+            logLock.readLock().unlock();
+            lock.unlock();
         }
-        return null;
+        if (book != null) {
+            maybeCompact();
+        }
+        GET.recordSince(start);
+        return book;
     }
 
-    // Remove a specific book
-    public void removeBook(Book book) {
-        String title = book.getTitle().toLowerCase();
-        books.getOrDefault(title, new ArrayList<>()).remove(book);
-        sortedBooks.remove(book);
-        saveBooks();  // Save after removal
+    // Remove a specific book; returns false if it was no longer available
+    public boolean removeBook(Book book) {
+        return removeBook(book, false);
     }
 
-    // List all books
-    public List<Book> getAllBooks() {
-        List<Book> list = new ArrayList<>();
-        for (Book book : sortedBooks) {
-            list.add(book);
+    // removes the given listing, or with exact == false the first equal copy if that one is gone
+    private boolean removeBook(Book book, boolean exact) {
+        long start = Metrics.start();
+        ReentrantLock lock = stripeFor(titleKey(book.getTitle()));
+        Book removed;
+        lock.lock();
+        logLock.readLock().lock();
+        try {
+            removed = unindex(book, exact);
+            if (removed != null) {
+                log(removed, false);
+            }
+        } finally {
+            logLock.readLock().unlock();
+            lock.unlock();
+        }
+        if (removed != null) {
+            maybeCompact();
+        }
+        REMOVE.recordSince(start);
+        return removed != null;
+    }
+
+    // The available listing with the given id, or null; O(1)
+    public Book getBookById(long listingId) {
+        if (table != null) {
+            return table.get(listingId);
+        }
+        LongHashMap<Book> listings = listingsFor(listingId);
+        synchronized (listings) {
+            return listings.get(listingId);
+        }
+    }
+
+    // Remove the listing with the given id; returns false if it is not available
+    public boolean removeBookById(long listingId) {
+        Book book = getBookById(listingId);
+        return book != null && removeBook(book, true);
+    }
+
+    private LongHashMap<Book> listingsFor(long listingId) {
+        return byListingId.get((int) (listingId ^ (listingId >>> 32)) & (STRIPES - 1));
+    }
+
+    private void putListing(Book book) {
+        LongHashMap<Book> listings = listingsFor(book.getListingId());
+        synchronized (listings) {
+            listings.put(book.getListingId(), book);
+        }
+    }
+
+    /**
+     * Takes up to the wanted number of copies of each title as one transaction:
+     * the copies are removed in catalogue order, and their log records are
+     * forced to disk with a single sync.
+     *
+     * @param wanted number of copies wanted, keyed by titleKey
+     * @return the copies taken, keyed like wanted; titles with no copies are absent
+     */
+    public Map<String, List<Book>> takeBooks(Map<String, Integer> wanted) {
+        Map<String, List<Book>> taken = takeBooksUnsynced(wanted);
+        if (!taken.isEmpty()) {
+            syncStore();
+        }
+        return taken;
+    }
+
+    // takeBooks without the sync, for callers that take several batches in parallel and then
+    // call syncStore once
+    Map<String, List<Book>> takeBooksUnsynced(Map<String, Integer> wanted) {
+        long start = Metrics.start();
+        Map<String, List<Book>> taken = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : wanted.entrySet()) {
+            String key = entry.getKey();
+            ReentrantLock lock = stripeFor(key);
+            lock.lock();
+            logLock.readLock().lock();
+            try {
+                if (table != null) {
+                    List<Book> copies = table.take(key, entry.getValue());
+                    if (!copies.isEmpty()) {
+                        tableChanged(key);
+                        if (storage != Storage.SLAB) {
+                            store.logRemoveAll(copies);
+                        }
+                        taken.put(key, copies);
+                    }
+                    continue;
+                }
+                MyTreeSet<Book> available = books.get(key);
+                if (available == null || available.isEmpty()) {
+                    continue;
+                }
+                List<Book> copies = new ArrayList<>(available.range(0, Math.min(entry.getValue(), available.size())));
+                for (Book book : copies) {
+                    available.remove(book);
+                }
+                if (available.isEmpty()) {
+                    books.remove(key);
+                    titleSearch.remove(key);
+                }
+                removeIndexed(copies);
+                store.logRemoveAll(copies);
+                taken.put(key, copies);
+            } finally {
+                logLock.readLock().unlock();
+                lock.unlock();
+            }
+        }
+        TAKE.recordSince(start);
+        return taken;
+    }
+
+    // logs an add or removal; SLAB's files already hold it
+    private void log(Book book, boolean add) {
+        if (storage == Storage.SLAB) {
+            return;
+        }
+        if (add) {
+            store.logAdd(book);
+        } else {
+            store.logRemove(book);
+        }
+    }
+
+    // forces the logged removals (with SLAB the slab files) to disk and compacts the log if
+    // it has grown
+    void syncStore() {
+        try {
+            if (table != null) {
+                table.sync();
+            }
+            store.sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        maybeCompact();
+    }
+
+    // compacts the log if it has grown; the caller must not hold logLock
+    private void maybeCompact() {
+        if (!store.compactionDue()) {
+            return;
+        }
+        logLock.writeLock().lock();
+        try {
+            store.maybeCompact(this::getAllBooks);
+        } finally {
+            logLock.writeLock().unlock();
+        }
+    }
+
+    // adds a book to the in-memory structures only; caller holds the title's stripe.
+    // Returns false if the listing is already available, e.g. when the log replays an
+    // ADD that the snapshot already holds
+    private boolean index(Book book) {
+        if (getBookById(book.getListingId()) != null) {
+            return false;
+        }
+        if (table != null) {
+            table.add(book);
+            if (table.availableCount(titleKey(book.getTitle())) == 1) {
+                titleSearch.add(book.getTitle());
+            }
+            tableVersion.incrementAndGet();
+            return true;
+        }
+        String title = titleKey(book.getTitle());
+        MyTreeSet<Book> copies = books.computeIfAbsent(title, k -> new MyTreeSet<>());
+        if (copies.isEmpty()) {
+            titleSearch.add(book.getTitle());
+        }
+        copies.add(book);
+        secondary.add(book);
+        putListing(book);
+        if (sortedIndex == SortedIndex.SKIP_LIST) {
+            sortedBooks.add(book);
+            return true;
+        }
+        sortedLock.lock();
+        try {
+            sortedBooks.add(book);
+        } finally {
+            sortedLock.unlock();
+        }
+        return true;
+    }
+
+    // removes a book from the in-memory structures only; caller holds the title's stripe.
+    // Removes that very listing (by id) if it is available, otherwise the first equal copy
+    private Book unindex(Book book) {
+        return unindex(book, false);
+    }
+
+    // returns the listing removed, or null
+    private Book unindex(Book book, boolean exact) {
+        String title = titleKey(book.getTitle());
+        if (table != null) {
+            Book removed = table.remove(book, exact);
+            if (removed != null) {
+                tableChanged(title);
+            }
+            return removed;
+        }
+        MyTreeSet<Book> copies = books.get(title);
+        if (copies == null) {
+            return null;
         }
+        // the listed copy, found by id; the secondary indexes know it by identity
+        Book listed = getBookById(book.getListingId());
+        if (listed == null || !listed.equals(book)) {
+            if (exact) {
+                return null;
+            }
+            // walk the copies sorting between ids 0 and MAX_VALUE of this title, course and seller
+            listed = null;
+            Book last = new Book(book.getTitle(), book.getCourseCode(), 0, book.getSeller(), Long.MAX_VALUE);
+            Iterator<Book> it = copies.iterator(new Book(book.getTitle(), book.getCourseCode(), 0, book.getSeller(), 0));
+            while (listed == null && it.hasNext()) {
+                Book copy = it.next();
+                if (copy.compareTo(last) > 0) {
+                    return null;
+                }
+                if (copy.equals(book)) {
+                    listed = copy;
+                }
+            }
+            if (listed == null) {
+                return null;
+            }
+        }
+        copies.remove(listed);
+        if (copies.isEmpty()) {
+            books.remove(title);
+            titleSearch.remove(title);
+        }
+        removeIndexed(listed);
+        return listed;
+    }
+
+    // after copies of a title left the table: drops the title from the search once it has
+    // none left and invalidates the sorted listings
+    private void tableChanged(String key) {
+        if (table.availableCount(key) == 0) {
+            titleSearch.remove(key);
+        }
+        tableVersion.incrementAndGet();
+    }
+
+    // the table's listings in sorted order; rebuilt on the first read after a change
+    private List<Book> sortedListings() {
+        SortedListings cached = sortedListings.get();
+        // read the version first: a change racing the copy below then forces the next rebuild
+        long version = tableVersion.get();
+        if (cached != null && cached.version == version) {
+            return cached.books;
+        }
+        Book[] array = table.toList().toArray(new Book[0]);
+        Arrays.parallelSort(array);
+        List<Book> list = Collections.unmodifiableList(Arrays.asList(array));
+        sortedListings = new SoftReference<>(new SortedListings(version, list));
         return list;
     }
 
+    private void removeIndexed(Book book) {
+        removeIndexed(Collections.singletonList(book));
+    }
+
+    // removes listings taken from the title map from the sorted view and secondary indexes
+    private void removeIndexed(List<Book> removed) {
+        secondary.removeAll(removed);
+        for (Book book : removed) {
+            LongHashMap<Book> listings = listingsFor(book.getListingId());
+            synchronized (listings) {
+                listings.remove(book.getListingId());
+            }
+        }
+        if (sortedIndex == SortedIndex.SKIP_LIST) {
+            for (Book book : removed) {
+                sortedBooks.remove(book);
+            }
+            return;
+        }
+        sortedLock.lock();
+        try {
+            for (Book book : removed) {
+                sortedBooks.remove(book);
+            }
+        } finally {
+            sortedLock.unlock();
+        }
+    }
+
+    /**
+     * Finds available books by title as the user types: titles starting with
+     * the query come first, then titles that match despite typos.
+     *
+     * @param query part of a title, in any case
+     * @param limit maximum number of titles matched
+     * @return the available copies of each matched title, best match first
+     */
+    public List<Book> searchBooks(String query, int limit) {
+        List<Book> result = new ArrayList<>();
+        for (String title : titleSearch.search(query, limit)) {
+            String key = titleKey(title);
+            ReentrantLock lock = stripeFor(key);
+            lock.lock();
+            try {
+                if (table != null) {
+                    result.addAll(table.copies(key));
+                    continue;
+                }
+                MyTreeSet<Book> copies = books.get(key);
+                if (copies != null) {
+                    for (Book book : copies) {
+                        result.add(book);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the available books matching every criterion of the query,
+     * e.g. all books for CS301 under $40. Uses the most selective of the
+     * course, seller and price indexes instead of scanning the catalogue.
+     *
+     * @param query the criteria; an empty query returns every book
+     * @return the matching books, in no particular order
+     */
+    public List<Book> findBooks(BookQuery query) {
+        if (table != null) {
+            List<Book> result = new ArrayList<>();
+            for (Book book : sortedListings()) {
+                if (query.matches(book)) {
+                    result.add(book);
+                }
+            }
+            return result;
+        }
+        return secondary.find(query, this::getAllBooks);
+    }
+
+    // List all books; the returned list is an immutable snapshot that later changes do not affect
+    public List<Book> getAllBooks() {
+        if (table != null) {
+            return sortedListings();
+        }
+        if (sortedIndex == SortedIndex.SKIP_LIST) {
+            // the skip list iterator is weakly consistent, so no lock or caching is needed
+            List<Book> list = new ArrayList<>(sortedBooks.size());
+            for (Iterator<Book> it = sortedBooks.iterator(); it.hasNext(); ) {
+                list.add(it.next());
+            }
+            return Collections.unmodifiableList(list);
+        }
+        // O(1): the list is a view of a frozen version of the tree
+        return tree().snapshot().asList();
+    }
+
+    private PersistentTreeSet<Book> tree() {
+        return (PersistentTreeSet<Book>) sortedBooks;
+    }
+
+    /**
+     * One page of the catalogue in sorted order. With the tree index this
+     * costs O(log n + pageSize) instead of copying the whole catalogue; the
+     * skip list has no ranks and walks from the start.
+     *
+     * @param page     page number, from 0
+     * @param pageSize books per page
+     * @return the books on that page; empty past the end
+     */
+    public List<Book> getBooksPage(int page, int pageSize) {
+        long from = (long) page * pageSize;
+        if (table != null) {
+            List<Book> all = sortedListings();
+            return from >= all.size() ? new ArrayList<>()
+                    : new ArrayList<>(all.subList((int) from, (int) Math.min(all.size(), from + pageSize)));
+        }
+        if (sortedIndex == SortedIndex.SKIP_LIST) {
+            return collect(sortedBooks.iterator(), from, pageSize);
+        }
+        PersistentTreeSet.Snapshot<Book> snapshot = tree().snapshot();
+        if (from >= snapshot.size()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(snapshot.range((int) from, (int) Math.min(snapshot.size(), from + pageSize)));
+    }
+
+    /**
+     * Books whose titles sort at or after the given text, e.g. "D" to jump to
+     * the titles starting with D.
+     *
+     * @param title where to start, in any case
+     * @param limit maximum number of books returned
+     */
+    public List<Book> getBooksFrom(String title, int limit) {
+        Book probe = new Book(title, "", 0, "", 0);
+        if (table != null) {
+            List<Book> all = sortedListings();
+            int i = Collections.binarySearch(all, probe);
+            return collect(all.iterator(), i < 0 ? -i - 1 : i, limit);
+        }
+        if (sortedIndex == SortedIndex.SKIP_LIST) {
+            List<Book> result = new ArrayList<>();
+            for (Iterator<Book> it = sortedBooks.iterator(); it.hasNext() && result.size() < limit; ) {
+                Book book = it.next();
+                if (book.compareTo(probe) >= 0) {
+                    result.add(book);
+                }
+            }
+            return result;
+        }
+        return collect(tree().snapshot().iterator(probe), 0, limit);
+    }
+
+    // skips the first skip elements, then copies up to limit of the rest
+    private static List<Book> collect(Iterator<Book> it, long skip, int limit) {
+        for (long i = 0; i < skip && it.hasNext(); i++) {
+            it.next();
+        }
+        List<Book> result = new ArrayList<>();
+        while (result.size() < limit && it.hasNext()) {
+            result.add(it.next());
+        }
+        return result;
+    }
+
+    /**
+     * A sequential stream of the catalogue in sorted order; call parallel()
+     * to spread it over the common fork-join pool. With the tree index it
+     * covers one snapshot and splits evenly; the skip list's stream is
+     * weakly consistent and does not split well.
+     */
+    public Stream<Book> stream() {
+        if (table != null) {
+            return sortedListings().stream();
+        }
+        if (sortedIndex == SortedIndex.SKIP_LIST) {
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(sortedBooks.iterator(),
+                    Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+        }
+        return tree().snapshot().stream();
+    }
+
+    // Number of listings per course code, computed in parallel
+    public SortedMap<String, Long> countByCourse() {
+        return stream().parallel().collect(Collectors.groupingBy(Book::getCourseCode, TreeMap::new, Collectors.counting()));
+    }
+
+    // Count, min, max, mean and sum of the listed prices, computed in parallel
+    public DoubleSummaryStatistics priceStatistics() {
+        return stream().parallel().mapToDouble(Book::getPrice).summaryStatistics();
+    }
+
+    // Number of available listings
+    public int size() {
+        return table != null ? table.size() : sortedBooks.size();
+    }
+
+    // Number of titles with at least one copy
+    public int titleCount() {
+        return table != null ? table.titleCount() : books.size();
+    }
+
+    // height of the sorted tree
+    private long treeHeight() {
+        return tree().height();
+    }
+
+    // Runs an operation on the async pool
+    static <T> CompletableFuture<T> async(Supplier<T> operation) {
+        return CompletableFuture.supplyAsync(operation, ASYNC);
+    }
+
+    // addBook on the async pool
+    public CompletableFuture<Void> addBookAsync(Book book) {
+        return async(() -> {
+            addBook(book);
+            return null;
+        });
+    }
+
+    // removeBookById on the async pool
+    public CompletableFuture<Boolean> removeBookByIdAsync(long listingId) {
+        return async(() -> removeBookById(listingId));
+    }
+
+    // getBooksPage on the async pool
+    public CompletableFuture<List<Book>> getBooksPageAsync(int page, int pageSize) {
+        return async(() -> getBooksPage(page, pageSize));
+    }
+
+    // searchBooks on the async pool
+    public CompletableFuture<List<Book>> searchBooksAsync(String query, int limit) {
+        return async(() -> searchBooks(query, limit));
+    }
+
+    // size on the async pool
+    public CompletableFuture<Integer> sizeAsync() {
+        return async(this::size);
+    }
+
+    // saveBooks on the async pool
+    public CompletableFuture<Void> saveBooksAsync() {
+        return async(() -> {
+            saveBooks();
+            return null;
+        });
+    }
+
     // List all books (for debug or console output)
     public void listAllBooks() {
-        if (sortedBooks.isEmpty()) {
+        List<Book> all = getAllBooks();
+        if (all.isEmpty()) {
             System.out.println("No books available.");
         } else {
             System.out.println("\nAvailable Books:");
-            for (Book book : sortedBooks) {
+            for (Book book : all) {
                 System.out.println(book);
             }
         }
     }
 
+    // Multi-threaded stress test: every listing is taken exactly once and the
+    // indexes agree afterwards. Returns the throughput in operations per second.
+    private static double stressTest(SortedIndex index, int threads, int titles, int opsPerThread) throws Exception {
+        BookManager manager = new BookManager(File.createTempFile("stress", ".txt").getPath(), index);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AtomicLong nextListing = new AtomicLong();
+        Set<String> taken = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            results.add(pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int takes = 0;
+                start.await();
+                for (int i = 0; i < opsPerThread; i++) {
+                    String title = "Title " + random.nextInt(titles);
+                    if ((i & 1) == 0) {
+                        manager.addBook(new Book(title, "CS" + nextListing.incrementAndGet(), 10, "Seller"));
+                    } else {
+                        Book book = manager.getBook(title);
+                        if (book != null) {
+                            // the listing's course code is unique, so a second take would collide
+                            assert taken.add(book.getCourseCode()) : "taken twice: " + book;
+                            takes++;
+                        }
+                    }
+                }
+                return takes;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        int takes = 0;
+        for (Future<Integer> result : results) {
+            takes += result.get();
+        }
+        long elapsed = System.nanoTime() - begin;
+        pool.shutdown();
+
+        int listed = 0;
+        for (MyTreeSet<Book> copies : manager.books.values()) {
+            listed += copies.size();
+        }
+        assert listed == nextListing.get() - takes;
+        assert manager.getAllBooks().size() == listed;
+        manager.close();
+        return threads * (double) opsPerThread / (elapsed / 1e9);
+    }
+
+    // Every storage engine serves the same operations and recovers the same catalogue
+    private static void checkStorage(Storage storage) throws IOException {
+        String file = Files.createTempDirectory("storage").resolve("books.txt").toString();
+        BookManager manager = new BookManager(file, storage);
+        Book first = new Book("Operating Systems", "CS350", 55, "Ann");
+        Book second = new Book("operating systems", "CS350", 45, "Ben");
+        Book third = new Book("Networks", "CS360", 30, "Ann");
+        for (Book book : List.of(first, second, third)) {
+            manager.addBook(book);
+        }
+        manager.addBook(first);   // already available
+        assert manager.size() == 3 && manager.titleCount() == 2 && manager.availableCount("operating systems") == 2;
+        assert manager.getBookById(second.getListingId()).getPrice() == 45;
+        assert manager.getAllBooks().equals(List.of(third, first, second));
+        assert manager.getBooksPage(1, 2).equals(List.of(second)) && manager.getBooksPage(2, 2).isEmpty();
+        assert manager.getBooksFrom("O", 5).equals(List.of(first, second));
+        assert manager.findBooks(new BookQuery().seller("Ann").maxPrice(40)).equals(List.of(third));
+        assert manager.searchBooks("operating", 5).size() == 2;
+        assert !manager.removeBookById(-1) && manager.removeBookById(second.getListingId());
+        assert manager.getBookById(second.getListingId()) == null;
+        manager.addBook(second);
+        Book fourth = new Book("Networks", "CS360", 35, "Cy");
+        manager.addBook(fourth);
+        assert manager.getBook("NETWORKS").getListingId() == third.getListingId();
+        Map<String, List<Book>> taken = manager.takeBooks(Map.of("operating systems", 1, "compilers", 1));
+        assert taken.keySet().equals(Set.of("operating systems")) && taken.get("operating systems").size() == 1;
+        assert manager.removeBook(new Book("networks", "CS360", 0, "Cy"));
+        assert manager.titleCount() == 1 && manager.searchBooks("netw", 5).isEmpty();
+        // without a matching id, each equal copy is found in turn and other sellers' copies are kept
+        manager.addBook(new Book("Algorithms", "CS101", 50, "Dee"));
+        manager.addBook(new Book("algorithms", "CS101", 45, "Dee"));
+        Book eves = new Book("Algorithms", "CS101", 40, "Eve");
+        manager.addBook(eves);
+        Book dees = new Book("ALGORITHMS", "CS101", 0, "Dee");
+        assert manager.removeBook(dees) && manager.removeBook(dees) && !manager.removeBook(dees);
+        assert manager.availableCount("algorithms") == 1 && manager.getBookById(eves.getListingId()) != null;
+        List<Book> expected = manager.getAllBooks();
+        manager.close();
+
+        BookManager reopened = new BookManager(file, storage);
+        assert reopened.getAllBooks().equals(expected) : storage + ": " + reopened.getAllBooks() + " != " + expected;
+        for (Book book : expected) {
+            assert reopened.getBookById(book.getListingId()).getPrice() == book.getPrice();
+        }
+        reopened.saveBooks();
+        reopened.close();
+        reopened = new BookManager(file, storage);
+        assert reopened.getAllBooks().equals(expected) && reopened.size() == expected.size();
+        reopened.close();
+    }
+
     // Main method to test the BookManager functionality
     public static void main(String[] args) {
         BookManager manager = new BookManager();
@@ -110,6 +1013,16 @@ public class BookManager {
         manager.addBook(book3);
         manager.addBook(book4);
 
+        // Copies with the same title are all kept in the sorted view, next to each other
+        int algorithms = 0;
+        for (Book book : manager.getAllBooks()) {
+            if (book.getTitle().equalsIgnoreCase("Algorithms")) {
+                algorithms++;
+            }
+        }
+        assert algorithms == manager.availableCount("algorithms") && algorithms >= 2;
+        assert manager.getBooksFrom("Algorithms", algorithms).stream().allMatch(b -> b.getTitle().equals("Algorithms"));
+
         // Listing all books
         System.out.println("=== All Books After Adding ===");
         manager.listAllBooks();  // Expecting 4 books
@@ -132,5 +1045,110 @@ public class BookManager {
         // Try to retrieve again (should be null as it's already removed)
         Book retrieved3 = manager.getBook("Java Programming");
         System.out.println("\nRetrieved (should be null): " + retrieved3);
+
+        // Title search: prefix first, then typo-tolerant matches; taken titles drop out
+        assert manager.searchBooks("algo", 5).contains(book4);
+        assert manager.searchBooks("Algorithsm", 5).contains(book4);
+        assert manager.searchBooks("java prog", 5).isEmpty();
+        System.out.println("\nSearch 'data strctures': " + manager.searchBooks("data strctures", 5));
+
+        // Secondary indexes: single criteria, combined criteria and an empty price range
+        Book cheap = new Book("Discrete Math", "MATH210", 19.5, "Nina");
+        Book pricey = new Book("Discrete Math", "MATH210", 80, "Omar");
+        manager.addBook(cheap);
+        manager.addBook(pricey);
+        assert manager.findBooks(new BookQuery().course("MATH210")).size() == 2;
+        assert manager.findBooks(new BookQuery().course("MATH210").maxPrice(20)).equals(List.of(cheap));
+        assert manager.findBooks(new BookQuery().seller("Omar").priceBetween(50, 100)).equals(List.of(pricey));
+        assert manager.findBooks(new BookQuery().priceBetween(30, 20)).isEmpty();
+        manager.removeBook(new Book("discrete math", "MATH210", 19.5, "Nina"));
+        assert manager.findBooks(new BookQuery().course("MATH210")).equals(List.of(pricey));
+        manager.getBook("Discrete Math");
+        assert manager.findBooks(new BookQuery().seller("Omar")).isEmpty();
+        System.out.println("Books under $40: " + manager.findBooks(new BookQuery().maxPrice(40)).size());
+
+        // Paging and seeking agree with the full sorted list
+        List<Book> all = manager.getAllBooks();
+        assert manager.getBooksPage(1, 5).equals(all.subList(5, Math.min(10, all.size())));
+        assert manager.getBooksPage(all.size(), 5).isEmpty();
+        for (Book book : manager.getBooksFrom("d", 3)) {
+            assert book.getTitle().compareToIgnoreCase("d") >= 0;
+        }
+        System.out.println("First titles from 'D': " + manager.getBooksFrom("D", 3));
+
+        // Parallel aggregations agree with a sequential pass
+        Map<String, Long> perCourse = new TreeMap<>();
+        double total = 0;
+        for (Book book : manager.getAllBooks()) {
+            perCourse.merge(book.getCourseCode(), 1L, Long::sum);
+            total += book.getPrice();
+        }
+        assert manager.countByCourse().equals(perCourse);
+        assert manager.priceStatistics().getCount() == manager.size();
+        assert Math.abs(manager.priceStatistics().getSum() - total) < 1e-6;
+        assert manager.stream().parallel().collect(Collectors.toList()).equals(manager.getAllBooks());
+        System.out.println("Listings per course: " + manager.countByCourse());
+
+        // A log that replays an ADD the snapshot already holds leaves a single listing
+        try {
+            String file = Files.createTempDirectory("bookmanager").resolve("books.txt").toString();
+            Book logged = new Book("Compilers", "CS401", 70, "Pat");
+            BookStore store = new BookStore(file);
+            store.recover(books -> { }, book -> { }, book -> { });
+            store.checkpoint(() -> List.of(logged));
+            store.logAdd(logged);
+            store.close();
+            BookManager replayed = new BookManager(file);
+            assert replayed.size() == 1 && replayed.getAllBooks().equals(List.of(logged));
+            assert replayed.findBooks(new BookQuery().course("CS401")).size() == 1;
+            replayed.close();
+
+            // writers racing log compactions: the recovered catalogue is the one left in memory
+            BookManager racing = new BookManager(file);
+            ExecutorService writers = Executors.newFixedThreadPool(4);
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                writers.submit(() -> {
+                    for (int i = 0; i < 6000; i++) {
+                        Book book = new Book("Race " + (i % 50), "CS" + thread, i, "Seller " + thread);
+                        racing.addBook(book);
+                        if (i % 2 == 0) {
+                            racing.removeBookById(book.getListingId());
+                        }
+                    }
+                });
+            }
+            writers.shutdown();
+            writers.awaitTermination(1, TimeUnit.MINUTES);
+            List<Book> expected = racing.getAllBooks();
+            racing.close();
+            BookManager recovered = new BookManager(file);
+            assert recovered.getAllBooks().equals(expected) : recovered.size() + " != " + expected.size();
+            assert recovered.findBooks(new BookQuery().course("CS0")).size() == 3000;
+            recovered.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        try {
+            for (Storage storage : Storage.values()) {
+                checkStorage(storage);
+            }
+            System.out.println("\nStorage engines agree: " + Arrays.toString(Storage.values()));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        // Concurrent stress test and throughput from 1 to 32 threads
+        try {
+            System.out.println("\n=== Concurrent throughput ===");
+            for (int threads = 1; threads <= 32; threads *= 2) {
+                double tree = stressTest(SortedIndex.TREE, threads, 1000, 20_000);
+                double skipList = stressTest(SortedIndex.SKIP_LIST, threads, 1000, 20_000);
+                System.out.printf("%2d threads: %,.0f ops/s (tree), %,.0f ops/s (skip list)%n", threads, tree, skipList);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 }
@@ -0,0 +1,75 @@
+package bookSystem;
+
+/**
+ * Filter for BookManager.findBooks. Every criterion that is set must hold;
+ * an empty query matches every available book.
+ *
+ *   manager.findBooks(new BookQuery().course("CS301").maxPrice(40))
+ */
+public class BookQuery {
+    private String courseCode;
+    private String seller;
+    private double minPrice = Double.NEGATIVE_INFINITY;
+    private double maxPrice = Double.POSITIVE_INFINITY;
+
+    // Only books for this course code (exact match)
+    public BookQuery course(String courseCode) {
+        this.courseCode = courseCode;
+        return this;
+    }
+
+    // Only books sold by this seller (exact match)
+    public BookQuery seller(String seller) {
+        this.seller = seller;
+        return this;
+    }
+
+    // Only books costing at least min
+    public BookQuery minPrice(double min) {
+        this.minPrice = min;
+        return this;
+    }
+
+    // Only books costing at most max
+    public BookQuery maxPrice(double max) {
+        this.maxPrice = max;
+        return this;
+    }
+
+    // Only books priced between min and max, inclusive
+    public BookQuery priceBetween(double min, double max) {
+        return minPrice(min).maxPrice(max);
+    }
+
+    public String getCourseCode() {
+        return courseCode;
+    }
+
+    public String getSeller() {
+        return seller;
+    }
+
+    public double getMinPrice() {
+        return minPrice;
+    }
+
+    public double getMaxPrice() {
+        return maxPrice;
+    }
+
+    boolean hasPriceRange() {
+        return minPrice != Double.NEGATIVE_INFINITY || maxPrice != Double.POSITIVE_INFINITY;
+    }
+
+    // Whether a single book satisfies every criterion
+    boolean matches(Book book) {
+        return (courseCode == null || courseCode.equals(book.getCourseCode()))
+                && (seller == null || seller.equals(book.getSeller()))
+                && book.getPrice() >= minPrice && book.getPrice() <= maxPrice;
+    }
+
+    @Override
+    public String toString() {
+        return "BookQuery{course=" + courseCode + ", seller=" + seller + ", price=[" + minPrice + ", " + maxPrice + "]}";
+    }
+}
@@ -0,0 +1,490 @@
+package bookSystem;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * REST API over BookManager and RequestManager, serving the endpoints the
+ * React frontend (frontend/src/services/api.ts) calls:
+ *
+ *   GET    /api/books                 all available books
+ *   POST   /api/books                 list a book {title, courseCode, price, seller}
+ *   GET    /api/books/{id}            one listing
+ *   GET    /api/books/search?q=...    by title (prefix and typo-tolerant) or course code
+ *   DELETE /api/books/{id}            withdraw a listing
+ *   GET    /api/requests              waiting requests, most urgent first
+ *   POST   /api/requests              add a request {title, requester, urgency}
+ *   POST   /api/requests/process      match requests with books, returns the log lines
+ *   GET    /api/metrics               counters and latencies as plain "name value" lines
+ *   DELETE /api/requests/{id}         cancel a request
+ *
+ * Book ids are listing ids. Built on the JDK's HttpServer, which keeps
+ * HTTP/1.1 connections alive (with TCP_NODELAY, otherwise every reused
+ * connection stalls ~40 ms on delayed ACKs); every exchange runs on its own
+ * virtual thread. Responses are serialized straight into the response
+ * stream, which turns chunked past 64 KB, so listing the whole catalogue
+ * does not build one big string. Errors are returned as {"message": ...}.
+ */
+public class BookServer {
+    private static final int DEFAULT_PORT = 8080;
+    private static final int SEARCH_LIMIT = 50;
+
+    private final BookManager bookManager;
+    private final RequestManager requestManager;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public BookServer(BookManager bookManager, RequestManager requestManager, int port) throws IOException {
+        this.bookManager = bookManager;
+        this.requestManager = requestManager;
+        // read once by the JDK server; must be set before the first server is created. By
+        // default it closes keep-alive connections beyond 200 idle ones
+        System.getProperties().putIfAbsent("sun.net.httpserver.nodelay", "true");
+        System.getProperties().putIfAbsent("sun.net.httpserver.maxIdleConnections", "20000");
+        server = HttpServer.create(new InetSocketAddress(port), 4096);
+        server.createContext("/api", this::handle);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        Metrics.registerMBean();
+        server.start();
+    }
+
+    // Stops accepting connections and waits up to delaySeconds for exchanges in progress
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    // The port actually bound, useful when constructed with port 0
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+            String method = exchange.getRequestMethod();
+            if (method.equals("OPTIONS")) {
+                // CORS preflight from the frontend's dev server
+                exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "GET, POST, DELETE, OPTIONS");
+                exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "Content-Type");
+                exchange.sendResponseHeaders(204, -1);
+                return;
+            }
+            String[] path = exchange.getRequestURI().getPath().replaceAll("/+$", "").split("/");
+            // path[0] is empty and path[1] is "api"
+            String resource = path.length > 2 ? path[2] : "";
+            String item = path.length > 3 ? path[3] : null;
+            if (path.length > 4) {
+                error(exchange, 404, "Not found");
+            } else if (resource.equals("books")) {
+                books(exchange, method, item);
+            } else if (resource.equals("requests")) {
+                requests(exchange, method, item);
+            } else if (resource.equals("metrics") && item == null && method.equals("GET")) {
+                metrics(exchange);
+            } else {
+                error(exchange, 404, "Not found");
+            }
+        } catch (IllegalArgumentException e) {
+            error(exchange, 400, e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            error(exchange, 500, "Internal error");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void books(HttpExchange exchange, String method, String item) throws IOException {
+        if (item == null && method.equals("GET")) {
+            List<Book> all = bookManager.getAllBooks();
+            respond(exchange, 200, out -> array(out, all, Json::book));
+        } else if (item == null && method.equals("POST")) {
+            Map<String, Object> body = body(exchange);
+            Book book = new Book(text(body, "title"), text(body, "courseCode"), number(body, "price"), text(body, "seller"));
+            bookManager.addBook(book);
+            respond(exchange, 201, out -> Json.book(out, book));
+        } else if ("search".equals(item) && method.equals("GET")) {
+            String query = query(exchange, "q");
+            List<Book> found = new ArrayList<>(bookManager.searchBooks(query, SEARCH_LIMIT));
+            Set<Long> seen = new HashSet<>();
+            for (Book book : found) {
+                seen.add(book.getListingId());
+            }
+            for (Book book : bookManager.findBooks(new BookQuery().course(query.trim().toUpperCase(Locale.ROOT)))) {
+                if (seen.add(book.getListingId())) {
+                    found.add(book);
+                }
+            }
+            respond(exchange, 200, out -> array(out, found, Json::book));
+        } else if (item != null && method.equals("GET")) {
+            Book book = bookManager.getBookById(id(item));
+            if (book == null) {
+                error(exchange, 404, "No book " + item);
+            } else {
+                respond(exchange, 200, out -> Json.book(out, book));
+            }
+        } else if (item != null && method.equals("DELETE")) {
+            if (bookManager.removeBookById(id(item))) {
+                exchange.sendResponseHeaders(204, -1);
+            } else {
+                error(exchange, 404, "No book " + item);
+            }
+        } else {
+            error(exchange, 405, "Method not allowed");
+        }
+    }
+
+    private void requests(HttpExchange exchange, String method, String item) throws IOException {
+        if (item == null && method.equals("GET")) {
+            List<Request> all = requestManager.getRequests();
+            respond(exchange, 200, out -> array(out, all, Json::request));
+        } else if (item == null && method.equals("POST")) {
+            Map<String, Object> body = body(exchange);
+            Request request = new Request(text(body, "title"), text(body, "requester"), urgency(body));
+            requestManager.addRequest(request);
+            respond(exchange, 201, out -> Json.request(out, request));
+        } else if ("process".equals(item) && method.equals("POST")) {
+            List<String> log = requestManager.processRequests(bookManager);
+            respond(exchange, 200, out -> array(out, log, Json::string));
+        } else if (item != null && method.equals("DELETE")) {
+            if (requestManager.cancelRequest(id(item))) {
+                exchange.sendResponseHeaders(204, -1);
+            } else {
+                error(exchange, 404, "No waiting request " + item);
+            }
+        } else {
+            error(exchange, 405, "Method not allowed");
+        }
+    }
+
+    // the Metrics text format, for scraping
+    private void metrics(HttpExchange exchange) throws IOException {
+        StringWriter text = new StringWriter();
+        Metrics.writeText(text);
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    // writes one JSON value to the response body
+    private interface Body {
+        void write(Writer out) throws IOException;
+    }
+
+    // writes one element of a JSON array
+    private interface Element<T> {
+        void write(Writer out, T value) throws IOException;
+    }
+
+    private static void respond(HttpExchange exchange, int status, Body body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new ResponseStream(exchange, status), StandardCharsets.UTF_8))) {
+            body.write(out);
+        }
+    }
+
+    /**
+     * Response body that is sent with a Content-Length when it fits in
+     * BUFFER_BYTES, and switches to chunked encoding once it outgrows it, so
+     * small responses leave in one write and large ones are never held whole.
+     */
+    private static final class ResponseStream extends OutputStream {
+        private static final int BUFFER_BYTES = 64 * 1024;
+
+        private final HttpExchange exchange;
+        private final int status;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+        private OutputStream streaming;     // set once the body went chunked
+
+        ResponseStream(HttpExchange exchange, int status) {
+            this.exchange = exchange;
+            this.status = status;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) throws IOException {
+            if (streaming == null && buffer.size() + len > BUFFER_BYTES) {
+                exchange.sendResponseHeaders(status, 0);
+                streaming = exchange.getResponseBody();
+                buffer.writeTo(streaming);
+            }
+            if (streaming != null) {
+                streaming.write(bytes, off, len);
+            } else {
+                buffer.write(bytes, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (streaming == null) {
+                exchange.sendResponseHeaders(status, buffer.size() == 0 ? -1 : buffer.size());
+                streaming = exchange.getResponseBody();
+                buffer.writeTo(streaming);
+            }
+            streaming.close();
+        }
+    }
+
+    private static <T> void array(Writer out, List<T> values, Element<T> element) throws IOException {
+        out.write('[');
+        boolean first = true;
+        // iterate rather than index: the catalogue is a tree snapshot, where get is O(log n)
+        for (T value : values) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            element.write(out, value);
+        }
+        out.write(']');
+    }
+
+    private static void error(HttpExchange exchange, int status, String message) throws IOException {
+        respond(exchange, status, out -> {
+            out.write("{\"message\":");
+            Json.string(out, message == null ? "Error" : message);
+            out.write('}');
+        });
+    }
+
+    private static Map<String, Object> body(HttpExchange exchange) throws IOException {
+        return Json.parseObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    private static String text(Map<String, Object> body, String name) {
+        Object value = body.get(name);
+        if (!(value instanceof String) || ((String) value).trim().isEmpty()) {
+            throw new IllegalArgumentException("Missing " + name);
+        }
+        return ((String) value).trim();
+    }
+
+    private static double number(Map<String, Object> body, String name) {
+        Object value = body.get(name);
+        if (value instanceof String) {
+            try {
+                return Double.parseDouble(((String) value).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad " + name + ": " + value);
+            }
+        }
+        if (!(value instanceof Double)) {
+            throw new IllegalArgumentException("Missing " + name);
+        }
+        return (Double) value;
+    }
+
+    // urgency of a request: a whole number from 1 (high) to 10 (low), as the GUI asks for
+    private static int urgency(Map<String, Object> body) {
+        double urgency = number(body, "urgency");
+        if (urgency != Math.rint(urgency) || urgency < 1 || urgency > 10) {
+            throw new IllegalArgumentException("Bad urgency: " + urgency + " (1 to 10)");
+        }
+        return (int) urgency;
+    }
+
+    private static long id(String item) {
+        try {
+            return Long.parseLong(item);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad id: " + item);
+        }
+    }
+
+    // value of a query parameter, or "" if absent
+    private static String query(HttpExchange exchange, String name) {
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw != null) {
+            for (String pair : raw.split("&")) {
+                int eq = pair.indexOf('=');
+                String key = eq < 0 ? pair : pair.substring(0, eq);
+                if (key.equals(name)) {
+                    return eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Starts the server, or runs a load test against a fresh catalogue:
+     *   java bookSystem.BookServer [port]
+     *   java bookSystem.BookServer load [clients] [seconds]
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("load")) {
+            int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+            int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+            loadTest(clients, seconds);
+            return;
+        }
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        BookManager bookManager = new BookManager();
+        BookServer server = new BookServer(bookManager, new RequestManager("requests.txt"), port);
+        server.start();
+        System.out.println("Book Exchange API listening on http://localhost:" + server.port() + "/api");
+    }
+
+    // checks every endpoint once, then has the clients read listings and search titles in a
+    // loop over keep-alive connections, reporting throughput and latency percentiles
+    private static void loadTest(int clients, int seconds) throws Exception {
+        BookManager bookManager = new BookManager(Files.createTempDirectory("server").resolve("books.txt").toString());
+        BookServer server = new BookServer(bookManager, new RequestManager(), 0);
+        server.start();
+        String base = "http://localhost:" + server.port() + "/api";
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+
+        // functional checks
+        HttpResponse<String> created = send(client, "POST", base + "/books",
+                "{\"title\":\"Operating Systems\",\"courseCode\":\"CS201\",\"price\":45,\"seller\":\"Dave \\\"D\\\"\"}");
+        assert created.statusCode() == 201 : created;
+        long bookId = ((Double) Json.parseObject(created.body()).get("id")).longValue();
+        assert send(client, "GET", base + "/books/" + bookId, null).body().contains("\"seller\":\"Dave \\\"D\\\"\"");
+        assert send(client, "GET", base + "/books/search?q=operatng%20sys", null).body().contains("\"id\":" + bookId);
+        assert send(client, "GET", base + "/books/search?q=cs201", null).body().contains("\"id\":" + bookId);
+        assert send(client, "POST", base + "/books", "{\"title\":\"x\"}").statusCode() == 400;
+        for (String urgency : new String[] {"0", "11", "2.5", "-3"}) {
+            assert send(client, "POST", base + "/requests",
+                    "{\"title\":\"x\",\"requester\":\"y\",\"urgency\":" + urgency + "}").statusCode() == 400 : urgency;
+        }
+        HttpResponse<String> request = send(client, "POST", base + "/requests",
+                "{\"title\":\"operating systems\",\"requester\":\"Eve\",\"urgency\":2}");
+        assert request.statusCode() == 201;
+        assert send(client, "GET", base + "/requests", null).body().contains("\"requester\":\"Eve\"");
+        assert send(client, "POST", base + "/requests/process", null).body().contains("Matched");
+        assert send(client, "GET", base + "/books/" + bookId, null).statusCode() == 404;
+        long requestId = ((Double) Json.parseObject(send(client, "POST", base + "/requests",
+                "{\"title\":\"Rare\",\"requester\":\"Finn\",\"urgency\":1}").body()).get("id")).longValue();
+        assert send(client, "DELETE", base + "/requests/" + requestId, null).statusCode() == 204;
+        assert send(client, "DELETE", base + "/requests/" + requestId, null).statusCode() == 404;
+        assert send(client, "GET", base + "/nothing", null).statusCode() == 404;
+        HttpResponse<String> metrics = send(client, "GET", base + "/metrics", null);
+        assert metrics.statusCode() == 200 && metrics.body().contains("\nrequests.cancelled ") : metrics.body();
+        System.out.println("REST API tests passed.");
+
+        // two random words per title, so titles share about as few trigrams as real ones do
+        Random words = new Random(42);
+        List<String> titles = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            String title = word(words) + " " + word(words);
+            titles.add(title);
+            Book book = new Book(title, "CS" + (100 + i % 400), 10 + i % 90, "Seller " + i % 500);
+            bookManager.addBook(book);
+            ids.add(book.getListingId());
+        }
+
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        ConcurrentLinkedQueue<long[]> samples = new ConcurrentLinkedQueue<>();
+        AtomicLong failures = new AtomicLong();
+        long start = System.nanoTime();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long[] latencies = new long[1024];
+                    int n = 0;
+                    // a bare keep-alive HTTP/1.1 client, so the load generator costs little next to the server
+                    try (Socket socket = new Socket("localhost", server.port())) {
+                        socket.setTcpNoDelay(true);
+                        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                        while (System.nanoTime() < deadline) {
+                            // a quarter of the requests search as the user types the start of a title
+                            String path = random.nextInt(4) == 0
+                                    ? "/api/books/search?q=" + titles.get(random.nextInt(titles.size())).substring(0, 4 + random.nextInt(4))
+                                    : "/api/books/" + ids.get(random.nextInt(ids.size()));
+                            long begin = System.nanoTime();
+                            out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                            out.flush();
+                            if (readResponse(in) != 200) {
+                                failures.incrementAndGet();
+                            }
+                            if (n == latencies.length) {
+                                latencies = Arrays.copyOf(latencies, n * 2);
+                            }
+                            latencies[n++] = System.nanoTime() - begin;
+                        }
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                    samples.add(Arrays.copyOf(latencies, n));
+                    return null;
+                });
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long[] all = samples.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("%,d clients: %,.0f requests/s, p50 %.1f ms, p99 %.1f ms, %d failures%n", clients,
+                all.length / elapsed, all[all.length / 2] / 1e6, all[(int) (all.length * 0.99)] / 1e6, failures.get());
+        server.stop(0);
+    }
+
+    private static String word(Random random) {
+        char[] letters = new char[5 + random.nextInt(5)];
+        for (int i = 0; i < letters.length; i++) {
+            letters[i] = (char) ('a' + random.nextInt(26));
+        }
+        letters[0] = Character.toUpperCase(letters[0]);
+        return new String(letters);
+    }
+
+    // reads one fixed-length response, returning its status code
+    private static int readResponse(DataInputStream in) throws IOException {
+        String status = line(in);
+        int length = 0;
+        for (String header = line(in); !header.isEmpty(); header = line(in)) {
+            if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                length = Integer.parseInt(header.substring(15).trim());
+            }
+        }
+        in.skipNBytes(length);
+        return Integer.parseInt(status.split(" ")[1]);
+    }
+
+    private static String line(DataInputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) {
+                throw new EOFException();
+            }
+            if (b != '\r') {
+                sb.append((char) b);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static HttpResponse<String> send(HttpClient client, String method, String uri, String json)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(uri)).header("Content-Type", "application/json");
+        builder.method(method, json == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(json));
+        return client.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
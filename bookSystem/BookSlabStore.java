@@ -0,0 +1,606 @@
+package bookSystem;
+
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Book listings kept off the Java heap, in memory-mapped slab files that
+ * survive a restart without any parsing.
+ *
+ * Records go into fixed-size slots of the smallest size class that fits them
+ * (64 to 1024 bytes), one file per class (books.slab64, books.slab128, ...),
+ * mapped in CHUNK_BYTES pieces as the file grows. A listing's handle is its
+ * size class and slot number packed into a long. Removed slots go on a
+ * per-class free list and are reused by the next record of that class.
+ *
+ * Slot layout (big-endian):
+ *   int state (LIVE or FREE), long prev, long next, long listing id, double price,
+ *   short len + title utf-8, short len + course utf-8, short len + seller utf-8
+ * prev/next chain the copies of a title in listing order; for a free slot
+ * next is the following free slot. Slot 0 of each file holds a header
+ * (magic, slot size, slots in use, layout version, loaded flag).
+ *
+ * The heap holds, per title, the head, tail and count of its chain, and a
+ * primitive map from listing id to handle. A record is written in full
+ * before its state turns LIVE, and its state turns FREE before any link
+ * around it changes; opening the store trusts only the state and fields of
+ * LIVE slots and rebuilds the chains (in listing id order), free lists and
+ * counts from them. Writes reach the OS page cache at once, so a process
+ * crash at any point loses at most the add or remove in flight. A power
+ * loss can also lose or tear the records written since the last sync().
+ * All methods are synchronized. BookManager keeps its listings here with
+ * Storage.SLAB.
+ */
+public class BookSlabStore implements ListingTable {
+    private static final int MAGIC = 0x424B534C; // "BKSL"
+    private static final int VERSION = 2;        // 2 added the listing id
+    private static final int[] SLOT_SIZES = {64, 128, 256, 512, 1024};
+    private static final int CHUNK_BYTES = 16 << 20;
+    private static final int LIVE = 1;
+    private static final int FREE = 2;
+    private static final long NONE = -1;
+    // slot field offsets
+    private static final int PREV = 4;
+    private static final int NEXT = 12;
+    private static final int ID = 20;
+    private static final int PRICE = 28;
+    private static final int STRINGS = 36;
+    private static final int FIXED_BYTES = STRINGS + 3 * 2;
+
+    private final Slab[] slabs = new Slab[SLOT_SIZES.length];
+    private final Map<String, long[]> titles = new HashMap<>();   // title key -> {head, tail, count}
+    private final LongLongMap handles = new LongLongMap();       // listing id -> handle
+    private int size;
+
+    // one size class: its file, mapped chunks and free list
+    private static final class Slab {
+        final int slotSize;
+        final int slotsPerChunk;
+        final FileChannel channel;
+        final List<MappedByteBuffer> chunks = new ArrayList<>();
+        int used;                 // slots handed out so far, including slot 0
+        long freeHead = NONE;
+
+        Slab(Path file, int slotSize) throws IOException {
+            this.slotSize = slotSize;
+            this.slotsPerChunk = CHUNK_BYTES / slotSize;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long length = channel.size();
+            for (long pos = 0; pos < length; pos += CHUNK_BYTES) {
+                mapChunk();
+            }
+            if (chunks.isEmpty()) {
+                mapChunk();
+                header().putInt(0, MAGIC).putInt(4, slotSize).putInt(8, 1).putInt(12, VERSION);
+            } else if (header().getInt(0) != MAGIC || header().getInt(4) != slotSize) {
+                throw new IOException("Not a " + slotSize + "-byte book slab: " + file);
+            } else if (header().getInt(12) != VERSION) {
+                throw new IOException("Unsupported book slab version " + header().getInt(12) + ": " + file);
+            }
+            used = header().getInt(8);
+        }
+
+        MappedByteBuffer header() {
+            return chunks.get(0);
+        }
+
+        private void mapChunk() throws IOException {
+            MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, (long) chunks.size() * CHUNK_BYTES, CHUNK_BYTES);
+            chunk.order(ByteOrder.BIG_ENDIAN);
+            chunks.add(chunk);
+        }
+
+        ByteBuffer chunkOf(long slot) {
+            return chunks.get((int) (slot / slotsPerChunk));
+        }
+
+        int offsetOf(long slot) {
+            return (int) (slot % slotsPerChunk) * slotSize;
+        }
+
+        long allocate() throws IOException {
+            if (freeHead != NONE) {
+                long slot = freeHead;
+                freeHead = chunkOf(slot).getLong(offsetOf(slot) + NEXT);
+                return slot;
+            }
+            if (used == (long) chunks.size() * slotsPerChunk) {
+                mapChunk();
+            }
+            header().putInt(8, used + 1);
+            return used++;
+        }
+
+        void release(long slot) {
+            ByteBuffer chunk = chunkOf(slot);
+            int offset = offsetOf(slot);
+            chunk.putInt(offset, FREE);
+            chunk.putLong(offset + NEXT, freeHead);
+            freeHead = slot;
+        }
+
+        // frees every slot; they are marked FREE first, as a reused slot must not be LIVE
+        // before its new record is complete
+        void clear() {
+            for (long slot = 1; slot < used; slot++) {
+                chunkOf(slot).putInt(offsetOf(slot), FREE);
+            }
+            header().putInt(8, 1);
+            used = 1;
+            freeHead = NONE;
+        }
+    }
+
+    /**
+     * Opens (or creates) the slab files next to base and rebuilds the indexes
+     * from the LIVE slots.
+     *
+     * @param base path prefix of the slab files, e.g. "books" for books.slab64, ...
+     * @throws IOException if a file is not a slab of this version, or two LIVE slots share a listing id
+     */
+    public BookSlabStore(String base) throws IOException {
+        for (int c = 0; c < SLOT_SIZES.length; c++) {
+            slabs[c] = new Slab(Paths.get(base + ".slab" + SLOT_SIZES[c]), SLOT_SIZES[c]);
+        }
+        long[] ids = new long[16];
+        int live = 0;
+        for (int c = 0; c < SLOT_SIZES.length; c++) {
+            Slab slab = slabs[c];
+            // walk backwards so the free list hands out low slots first
+            for (long slot = slab.used - 1; slot >= 1; slot--) {
+                ByteBuffer chunk = slab.chunkOf(slot);
+                int offset = slab.offsetOf(slot);
+                if (chunk.getInt(offset) != LIVE) {
+                    slab.release(slot);
+                    continue;
+                }
+                long id = chunk.getLong(offset + ID);
+                if (handles.put(id, handle(c, slot)) != LongLongMap.MISSING) {
+                    throw new IOException("Listing " + id + " is stored twice in " + base);
+                }
+                if (live == ids.length) {
+                    ids = Arrays.copyOf(ids, live * 2);
+                }
+                ids[live++] = id;
+            }
+        }
+        // the links on disk may be stale after a crash; chain the copies again in listing order
+        Arrays.sort(ids, 0, live);
+        for (int i = 0; i < live; i++) {
+            long handle = handles.get(ids[i]);
+            long[] chain = titles.computeIfAbsent(BookManager.titleKey(read(handle).getTitle()),
+                    k -> new long[] {NONE, NONE, 0});
+            setPrev(handle, chain[1]);
+            setNext(handle, NONE);
+            link(handle, chain);
+        }
+        if (live > 0) {
+            Book.reserveListingIds(ids[live - 1]);
+        }
+    }
+
+    /**
+     * Stores a listing under its listing id, at the end of its title's chain.
+     *
+     * @param book the listing
+     * @throws IllegalArgumentException if the record does not fit the largest slot, or a
+     *                                  listing with that id is already stored
+     * @throws UncheckedIOException     if a slab file cannot grow
+     */
+    @Override
+    public synchronized void add(Book book) {
+        if (handles.get(book.getListingId()) != LongLongMap.MISSING) {
+            throw new IllegalArgumentException("listing " + book.getListingId() + " is already stored");
+        }
+        byte[] title = book.getTitle().getBytes(StandardCharsets.UTF_8);
+        byte[] course = book.getCourseCode().getBytes(StandardCharsets.UTF_8);
+        byte[] seller = book.getSeller().getBytes(StandardCharsets.UTF_8);
+        int bytes = FIXED_BYTES + title.length + course.length + seller.length;
+        int c = 0;
+        while (c < SLOT_SIZES.length && SLOT_SIZES[c] < bytes) {
+            c++;
+        }
+        if (c == SLOT_SIZES.length) {
+            throw new IllegalArgumentException("Listing too large (" + bytes + " bytes): " + book);
+        }
+        Slab slab = slabs[c];
+        long slot;
+        try {
+            slot = slab.allocate();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long handle = handle(c, slot);
+        long[] chain = titles.computeIfAbsent(BookManager.titleKey(book.getTitle()), k -> new long[] {NONE, NONE, 0});
+
+        ByteBuffer chunk = slab.chunkOf(slot);
+        int offset = slab.offsetOf(slot);
+        chunk.putLong(offset + PREV, chain[1]);
+        chunk.putLong(offset + NEXT, NONE);
+        chunk.putLong(offset + ID, book.getListingId());
+        chunk.putDouble(offset + PRICE, book.getPrice());
+        int pos = offset + STRINGS;
+        pos = putString(chunk, pos, title);
+        pos = putString(chunk, pos, course);
+        putString(chunk, pos, seller);
+        chunk.putInt(offset, LIVE);   // the record is complete before it goes live
+
+        handles.put(book.getListingId(), handle);
+        link(handle, chain);
+    }
+
+    @Override
+    public synchronized List<Book> take(String key, int max) {
+        long[] chain = titles.get(key);
+        List<Book> taken = new ArrayList<>();
+        while (chain != null && chain[2] > 0 && taken.size() < max) {
+            long handle = chain[0];
+            taken.add(read(handle));
+            unlink(handle, chain, key);
+        }
+        return taken;
+    }
+
+    @Override
+    public synchronized Book remove(Book book, boolean exact) {
+        String key = BookManager.titleKey(book.getTitle());
+        long[] chain = titles.get(key);
+        long handle = handles.get(book.getListingId());
+        if (handle != LongLongMap.MISSING) {
+            Book listed = read(handle);
+            if (listed.equals(book)) {
+                unlink(handle, chain, key);
+                return listed;
+            }
+        }
+        if (exact) {
+            return null;
+        }
+        for (handle = chain == null ? NONE : chain[0]; handle != NONE; handle = next(handle)) {
+            Book listed = read(handle);
+            if (listed.equals(book)) {
+                unlink(handle, chain, key);
+                return listed;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized Book get(long listingId) {
+        long handle = handles.get(listingId);
+        return handle == LongLongMap.MISSING ? null : read(handle);
+    }
+
+    @Override
+    public synchronized int availableCount(String key) {
+        long[] chain = titles.get(key);
+        return chain == null ? 0 : (int) chain[2];
+    }
+
+    @Override
+    public synchronized List<Book> copies(String key) {
+        long[] chain = titles.get(key);
+        List<Book> list = new ArrayList<>();
+        for (long handle = chain == null ? NONE : chain[0]; handle != NONE; handle = next(handle)) {
+            list.add(read(handle));
+        }
+        return list;
+    }
+
+    // each title spelled as its oldest copy is
+    @Override
+    public synchronized List<String> titles() {
+        List<String> list = new ArrayList<>(titles.size());
+        for (long[] chain : titles.values()) {
+            list.add(read(chain[0]).getTitle());
+        }
+        return list;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized int titleCount() {
+        return titles.size();
+    }
+
+    @Override
+    public synchronized List<Book> toList() {
+        List<Book> list = new ArrayList<>(size);
+        for (int c = 0; c < SLOT_SIZES.length; c++) {
+            Slab slab = slabs[c];
+            for (long slot = 1; slot < slab.used; slot++) {
+                if (slab.chunkOf(slot).getInt(slab.offsetOf(slot)) == LIVE) {
+                    list.add(read(handle(c, slot)));
+                }
+            }
+        }
+        return list;
+    }
+
+    // True once markLoaded was called on these files
+    synchronized boolean loaded() {
+        return slabs[0].header().getInt(16) != 0;
+    }
+
+    // Records on disk that the files hold a whole catalogue, e.g. once one has been imported;
+    // files left by an import that was cut short are not marked
+    synchronized void markLoaded() {
+        sync();
+        slabs[0].header().putInt(16, 1);
+        slabs[0].header().force();
+    }
+
+    // Removes every listing
+    synchronized void clear() {
+        for (Slab slab : slabs) {
+            slab.clear();
+        }
+        titles.clear();
+        handles.clear();
+        size = 0;
+    }
+
+    // Forces all slab writes to disk
+    @Override
+    public synchronized void sync() {
+        for (Slab slab : slabs) {
+            for (MappedByteBuffer chunk : slab.chunks) {
+                chunk.force();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        for (Slab slab : slabs) {
+            slab.channel.close();
+        }
+    }
+
+    private static long handle(int sizeClass, long slot) {
+        return (long) sizeClass << 48 | slot;
+    }
+
+    private Book read(long handle) {
+        Slab slab = slabs[(int) (handle >>> 48)];
+        long slot = handle & 0xFFFF_FFFF_FFFFL;
+        ByteBuffer chunk = slab.chunkOf(slot);
+        int offset = slab.offsetOf(slot);
+        double price = chunk.getDouble(offset + PRICE);
+        int pos = offset + STRINGS;
+        String title = string(chunk, pos);
+        pos += 2 + chunk.getShort(pos);
+        String course = string(chunk, pos);
+        pos += 2 + chunk.getShort(pos);
+        return new Book(title, course, price, string(chunk, pos), chunk.getLong(offset + ID));
+    }
+
+    private long prev(long handle) {
+        Slab slab = slabs[(int) (handle >>> 48)];
+        long slot = handle & 0xFFFF_FFFF_FFFFL;
+        return slab.chunkOf(slot).getLong(slab.offsetOf(slot) + PREV);
+    }
+
+    private long next(long handle) {
+        Slab slab = slabs[(int) (handle >>> 48)];
+        long slot = handle & 0xFFFF_FFFF_FFFFL;
+        return slab.chunkOf(slot).getLong(slab.offsetOf(slot) + NEXT);
+    }
+
+    private void setPrev(long handle, long prev) {
+        Slab slab = slabs[(int) (handle >>> 48)];
+        long slot = handle & 0xFFFF_FFFF_FFFFL;
+        slab.chunkOf(slot).putLong(slab.offsetOf(slot) + PREV, prev);
+    }
+
+    private void setNext(long handle, long next) {
+        Slab slab = slabs[(int) (handle >>> 48)];
+        long slot = handle & 0xFFFF_FFFF_FFFFL;
+        slab.chunkOf(slot).putLong(slab.offsetOf(slot) + NEXT, next);
+    }
+
+    // appends a LIVE record whose prev already points at the chain's tail
+    private void link(long handle, long[] chain) {
+        if (chain[1] == NONE) {
+            chain[0] = handle;
+        } else {
+            setNext(chain[1], handle);
+        }
+        chain[1] = handle;
+        chain[2]++;
+        size++;
+    }
+
+    // removes a record from its title's chain and frees its slot
+    private void unlink(long handle, long[] chain, String key) {
+        Slab slab = slabs[(int) (handle >>> 48)];
+        long slot = handle & 0xFFFF_FFFF_FFFFL;
+        ByteBuffer chunk = slab.chunkOf(slot);
+        int offset = slab.offsetOf(slot);
+        long id = chunk.getLong(offset + ID);
+        long prev = prev(handle);
+        long next = next(handle);
+        chunk.putInt(offset, FREE);   // the record is gone before any link changes
+        if (prev == NONE) {
+            chain[0] = next;
+        } else {
+            setNext(prev, next);
+        }
+        if (next == NONE) {
+            chain[1] = prev;
+        } else {
+            setPrev(next, prev);
+        }
+        if (--chain[2] == 0) {
+            titles.remove(key);
+        }
+        slab.release(slot);
+        handles.remove(id);
+        size--;
+    }
+
+    private static int putString(ByteBuffer chunk, int pos, byte[] bytes) {
+        chunk.putShort(pos, (short) bytes.length);
+        chunk.put(pos + 2, bytes);
+        return pos + 2 + bytes.length;
+    }
+
+    private static String string(ByteBuffer chunk, int pos) {
+        byte[] bytes = new byte[chunk.getShort(pos)];
+        chunk.get(pos + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Tests the store, then compares GC activity and RSS of a sustained add/remove churn on
+    // the heap and in the slabs: java bookSystem.BookSlabStore [heap|slab|both] [listings] [ops]
+    public static void main(String[] args) throws IOException {
+        String base = Files.createTempDirectory("slab").resolve("books").toString();
+        BookSlabStore store = new BookSlabStore(base);
+        Book a1 = new Book("Algorithms", "CS101", 49.99, "Alice");
+        Book a2 = new Book("algorithms", "CS101", 45.00, "Bob");
+        Book databases = new Book("Databases", "CS301", 47.5, "Frank");
+        store.add(a1);
+        store.add(a2);
+        store.add(new Book("A much longer title " + "x".repeat(200), "CS999", 1, "Zed"));
+        assert store.size() == 3 && store.availableCount("algorithms") == 2 && store.titleCount() == 2;
+        Book stored = store.get(a1.getListingId());
+        assert stored.equals(a1) && stored.getListingId() == a1.getListingId() && stored.getPrice() == 49.99;
+        assert store.remove(new Book("ALGORITHMS", "CS101", 0, "Bob"), true) == null;
+        assert store.remove(new Book("ALGORITHMS", "CS101", 0, "Bob"), false).getListingId() == a2.getListingId();
+        assert store.remove(a2, false) == null && store.get(a2.getListingId()) == null;
+        store.add(databases);
+        assert !store.loaded();
+        store.markLoaded();
+        store.close();
+
+        // reopening rebuilds the chains and free lists from the slots alone
+        store = new BookSlabStore(base);
+        assert store.loaded() && store.size() == 3 && store.availableCount("algorithms") == 1;
+        assert store.take("algorithms", 2).equals(List.of(a1)) && store.take("algorithms", 1).isEmpty();
+        assert store.get(databases.getListingId()).getPrice() == 47.5;
+        store.close();
+
+        // a crash in the middle of a remove left a FREE slot that its neighbours still link to,
+        // and one in the middle of an add a complete record that nothing links to yet
+        Book c1 = new Book("Compilers", "CS420", 60, "Ann");
+        Book c2 = new Book("Compilers", "CS420", 61, "Ben");
+        Book c3 = new Book("Compilers", "CS420", 62, "Cy");
+        store = new BookSlabStore(base);
+        store.add(c1);
+        store.add(c2);
+        store.add(c3);
+        long middle = store.handles.get(c2.getListingId());
+        store.slabs[(int) (middle >>> 48)].chunkOf(middle & 0xFFFF_FFFF_FFFFL)
+                .putInt(store.slabs[(int) (middle >>> 48)].offsetOf(middle & 0xFFFF_FFFF_FFFFL), FREE);
+        store.setNext(store.handles.get(c3.getListingId()), NONE);
+        store.setPrev(store.handles.get(c3.getListingId()), NONE);
+        store.close();
+        store = new BookSlabStore(base);
+        assert store.size() == 4 && store.get(c2.getListingId()) == null;   // with the two from before
+        assert store.copies("compilers").equals(List.of(c1, c3));
+        assert store.toList().size() == 4;
+        store.add(c2);   // reuses the freed slot
+        assert store.copies("compilers").equals(List.of(c1, c3, c2));
+        store.clear();
+        assert store.size() == 0 && store.toList().isEmpty() && store.get(c1.getListingId()) == null;
+        store.close();
+        System.out.println("Slab store tests passed.");
+
+        String mode = args.length > 0 ? args[0] : "both";
+        int listings = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+        int ops = args.length > 2 ? Integer.parseInt(args[2]) : 5_000_000;
+        if (!mode.equals("slab")) {
+            churn("heap", null, listings, ops);
+        }
+        if (!mode.equals("heap")) {
+            churn("slab", new BookSlabStore(Files.createTempDirectory("slab").resolve("books").toString()), listings, ops);
+        }
+    }
+
+    // fills the catalogue, then repeatedly takes a random title and lists a new copy
+    private static void churn(String name, BookSlabStore slab, int listings, int ops) throws IOException {
+        Map<String, ArrayDeque<Book>> heap = new HashMap<>();
+        Random random = new Random(42);
+        int titleCount = listings / 3;
+        long start = System.nanoTime();
+        for (int i = 0; i < listings + ops; i++) {
+            if (i >= listings) {
+                String title = "Title " + random.nextInt(titleCount);
+                if (slab != null) {
+                    slab.take(BookManager.titleKey(title), 1);
+                } else {
+                    ArrayDeque<Book> copies = heap.get(BookManager.titleKey(title));
+                    if (copies != null && copies.poll() != null && copies.isEmpty()) {
+                        heap.remove(BookManager.titleKey(title));
+                    }
+                }
+            }
+            Book book = new Book("Title " + random.nextInt(titleCount), "CS" + (100 + i % 400), 10 + (i % 9000) / 100.0,
+                    "Seller " + (i % 5000));
+            if (slab != null) {
+                slab.add(book);
+            } else {
+                heap.computeIfAbsent(BookManager.titleKey(book.getTitle()), k -> new ArrayDeque<>()).add(book);
+            }
+            if (i == listings) {
+                gcStats(true);
+            }
+        }
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        long[] gc = gcStats(false);
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        System.out.printf("%s: %,d listings + %,d churn ops in %,d ms; churn GCs %d taking %d ms; live heap %,d MB; RSS %s%n",
+                name, listings, ops, elapsed, gc[0], gc[1], (runtime.totalMemory() - runtime.freeMemory()) >> 20, rss());
+        if (slab != null) {
+            slab.close();
+        }
+    }
+
+    private static long gcBaseCount;
+    private static long gcBaseMillis;
+
+    // collections and collection time since the last reset
+    private static long[] gcStats(boolean reset) {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        if (reset) {
+            gcBaseCount = count;
+            gcBaseMillis = millis;
+        }
+        return new long[] {count - gcBaseCount, millis - gcBaseMillis};
+    }
+
+    // resident set size of this process, from /proc on Linux
+    private static String rss() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return line.substring(6).trim();
+                }
+            }
+        } catch (IOException e) {
+            // not on Linux
+        }
+        return "n/a";
+    }
+}
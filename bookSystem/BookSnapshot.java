@@ -0,0 +1,285 @@
+package bookSystem;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary snapshot of the book catalogue, read through a memory-mapped file.
+ *
+ * Layout (big-endian):
+ *   header   int magic "BKSN", int version, int count
+ *   records  count x { long listing id, int len, title utf-8, int len, course utf-8, double price,
+ *                      int len, seller utf-8 }
+ *   trailer  int CRC32C of the records region
+ * Version 1 files, whose records have no listing id, are still read; their
+ * books get fresh ids.
+ *
+ * Opening a snapshot maps the file and records where each record starts; the
+ * strings stay in the mapped region until a field or Book is asked for, so
+ * the list is random-access with lazy decoding. Unlike the CSV file, titles
+ * may contain commas.
+ */
+public class BookSnapshot extends AbstractList<Book> {
+    private static final int MAGIC = 0x424B534E; // "BKSN"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 12;
+    private static final int TRAILER_BYTES = 4;
+
+    private final MappedByteBuffer data;
+    private final int[] offsets;        // start of each record's title
+    private final boolean hasIds;
+
+    private BookSnapshot(MappedByteBuffer data, int[] offsets, boolean hasIds) {
+        this.data = data;
+        this.offsets = offsets;
+        this.hasIds = hasIds;
+    }
+
+    /**
+     * Maps a snapshot file and validates its header and checksum.
+     *
+     * @param file the snapshot to open
+     * @return the mapped snapshot
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static BookSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_BYTES + TRAILER_BYTES || length > Integer.MAX_VALUE) {
+                throw new IOException("Bad snapshot size " + length + ": " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            data.order(ByteOrder.BIG_ENDIAN);
+            if (data.getInt(0) != MAGIC) {
+                throw new IOException("Not a book snapshot: " + file);
+            }
+            int version = data.getInt(4);
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + data.getInt(4) + ": " + file);
+            }
+
+            int end = (int) length - TRAILER_BYTES;
+            CRC32C crc = new CRC32C();
+            crc.update(data.slice(HEADER_BYTES, end - HEADER_BYTES));
+            if ((int) crc.getValue() != data.getInt(end)) {
+                throw new IOException("Snapshot checksum mismatch: " + file);
+            }
+
+            boolean hasIds = version >= 2;
+            int count = data.getInt(8);
+            int[] offsets = new int[count];
+            int pos = HEADER_BYTES;
+            long maxId = 0;
+            for (int i = 0; i < count; i++) {
+                if (hasIds) {
+                    maxId = Math.max(maxId, data.getLong(pos));
+                    pos += 8;
+                }
+                offsets[i] = pos;
+                pos += 4 + data.getInt(pos);     // title
+                pos += 4 + data.getInt(pos);     // course code
+                pos += 8;                        // price
+                pos += 4 + data.getInt(pos);     // seller
+                if (pos > end) {
+                    throw new IOException("Truncated snapshot record " + i + ": " + file);
+                }
+            }
+            // new listings must not reuse the ids stored here
+            Book.reserveListingIds(maxId);
+            return new BookSnapshot(data, offsets, hasIds);
+        }
+    }
+
+    /**
+     * Writes books as a snapshot file, fsyncing it before returning.
+     *
+     * @param file  the file to (over)write
+     * @param books the books to store, in the order they should be read back
+     */
+    public static void write(Path file, Collection<Book> books) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            CRC32C crc = new CRC32C();
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(books.size());
+            flush(channel, buffer, null);
+
+            for (Book book : books) {
+                byte[] title = book.getTitle().getBytes(StandardCharsets.UTF_8);
+                byte[] course = book.getCourseCode().getBytes(StandardCharsets.UTF_8);
+                byte[] seller = book.getSeller().getBytes(StandardCharsets.UTF_8);
+                int recordBytes = 28 + title.length + course.length + seller.length;
+                if (buffer.remaining() < recordBytes) {
+                    flush(channel, buffer, crc);
+                    if (buffer.capacity() < recordBytes) {
+                        buffer = ByteBuffer.allocateDirect(recordBytes);
+                    }
+                }
+                buffer.putLong(book.getListingId());
+                buffer.putInt(title.length).put(title);
+                buffer.putInt(course.length).put(course);
+                buffer.putDouble(book.getPrice());
+                buffer.putInt(seller.length).put(seller);
+            }
+            flush(channel, buffer, crc);
+
+            buffer.putInt((int) crc.getValue());
+            flush(channel, buffer, null);
+            channel.force(true);
+        }
+    }
+
+    // writes out the buffered bytes, feeding them to the checksum when one is given
+    private static void flush(FileChannel channel, ByteBuffer buffer, CRC32C crc) throws IOException {
+        buffer.flip();
+        if (crc != null) {
+            crc.update(buffer.duplicate());
+        }
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public int size() {
+        return offsets.length;
+    }
+
+    // Decodes the whole record at index i
+    @Override
+    public Book get(int i) {
+        int pos = offsets[i];
+        String title = string(pos);
+        pos += 4 + data.getInt(pos);
+        String course = string(pos);
+        pos += 4 + data.getInt(pos);
+        double price = data.getDouble(pos);
+        String seller = string(pos + 8);
+        if (hasIds) {
+            return new Book(title, course, price, seller, data.getLong(offsets[i] - 8));
+        }
+        return new Book(title, course, price, seller);
+    }
+
+    // Decodes only the title of record i
+    public String title(int i) {
+        return string(offsets[i]);
+    }
+
+    // Reads the price of record i without decoding any strings
+    public double price(int i) {
+        int pos = offsets[i];
+        pos += 4 + data.getInt(pos);
+        pos += 4 + data.getInt(pos);
+        return data.getDouble(pos);
+    }
+
+    private String string(int pos) {
+        int length = data.getInt(pos);
+        byte[] bytes = new byte[length];
+        data.get(pos + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Compares load time and retained heap of the CSV and binary formats, and the time a
+    // BookManager takes to load a catalogue from each: java bookSystem.BookSnapshot [count [loadCount]]
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int loadCount = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        Path dir = Files.createTempDirectory("snapshot");
+        Path csv = dir.resolve("books.txt");
+        Path bin = dir.resolve("books.txt.snap");
+
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            books.add(new Book("Title " + i, "CS" + (100 + i % 400), 10 + (i % 9000) / 100.0, "Seller " + (i % 5000)));
+        }
+        books.add(new Book("Crime, and Punishment", "LIT200", 12.5, "Ann"));
+        try (BufferedWriter bw = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            for (Book book : books) {
+                bw.write(book.getTitle() + "," + book.getCourseCode() + "," + book.getPrice() + "," + book.getSeller());
+                bw.newLine();
+            }
+        }
+        write(bin, books);
+        Path catalogue = dir.resolve("catalogue.txt");
+        BookCsv.write(catalogue, books.subList(0, Math.min(loadCount, books.size())));
+        long id7 = books.get(7).getListingId();
+        books = null;
+
+        // round trip, including the title with a comma the CSV reader drops
+        BookSnapshot snapshot = open(bin);
+        assert snapshot.size() == count + 1;
+        assert snapshot.get(count).getTitle().equals("Crime, and Punishment");
+        assert snapshot.title(7).equals("Title 7") && snapshot.price(7) == 10.07;
+        assert snapshot.get(7).getListingId() == id7;
+        assert new Book("New", "CS100", 1, "Ann").getListingId() > snapshot.get(count).getListingId();
+        snapshot = null;
+
+        long base = usedHeap();
+        long start = System.nanoTime();
+        List<Book> parsed = new ArrayList<>();
+        try (BufferedReader br = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(",");
+                if (parts.length == 4) {
+                    parsed.add(new Book(parts[0].trim(), parts[1].trim(), Double.parseDouble(parts[2].trim()), parts[3].trim()));
+                }
+            }
+        }
+        long csvMs = (System.nanoTime() - start) / 1_000_000;
+        long csvHeap = usedHeap() - base;
+        int csvCount = parsed.size();
+        parsed = null;
+
+        base = usedHeap();
+        start = System.nanoTime();
+        BookSnapshot mapped = open(bin);
+        long mapMs = (System.nanoTime() - start) / 1_000_000;
+        long mapHeap = usedHeap() - base;
+
+        System.out.println("CSV:    " + csvCount + " books in " + csvMs + " ms, " + csvHeap / (1 << 20) + " MB heap");
+        System.out.println("Binary: " + mapped.size() + " books in " + mapMs + " ms, " + mapHeap / (1 << 20)
+                + " MB heap (" + Files.size(bin) / (1 << 20) + " MB mapped, vs " + Files.size(csv) / (1 << 20)
+                + " MB CSV; open only indexes the records, nothing is decoded)");
+        mapped = null;
+
+        // end to end: a BookManager decodes every record into its indexes whichever file it loads
+        start = System.nanoTime();
+        BookManager fromCsv = new BookManager(catalogue.toString());
+        long csvLoadMs = (System.nanoTime() - start) / 1_000_000;
+        int loaded = fromCsv.size();
+        fromCsv.saveBooks();    // writes catalogue.txt.snap
+        fromCsv.close();
+        fromCsv = null;
+        // the metrics gauges follow the latest BookManager; hand them to an empty one so the
+        // first catalogue is not still reachable while the second loads
+        new BookManager(dir.resolve("empty.txt").toString()).close();
+        usedHeap();
+        start = System.nanoTime();
+        BookManager fromSnapshot = new BookManager(catalogue.toString());
+        long snapshotLoadMs = (System.nanoTime() - start) / 1_000_000;
+        assert fromSnapshot.size() == loaded;
+        fromSnapshot.close();
+        System.out.println("BookManager load of " + loaded + " books: " + csvLoadMs + " ms from CSV, "
+                + snapshotLoadMs + " ms from the snapshot");
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,485 @@
+package bookSystem;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Persistence engine behind BookManager.
+ *
+ * The catalogue lives in a binary snapshot (books.txt.snap, see BookSnapshot)
+ * plus an append-only operation log (books.txt.log) of ADD and REMOVE records,
+ * each carrying the listing id (op,id,title,course,price,seller, with commas,
+ * '%' and line breaks in the text fields %-escaped by LogFields). A mutation only
+ * appends one record; records are fsynced in batches (group commit) rather
+ * than one by one. Once the log grows past a threshold it is rolled over and
+ * a background thread writes a fresh snapshot, after which the old log is
+ * dropped. Recovery loads the snapshot and replays the log on top of it.
+ * The CSV file (books.txt) is only read when no snapshot exists yet, and is
+ * written by exportCsv; both go through BookCsv's bulk reader and writer.
+ *
+ * Compaction installs files in this order, so a crash at any point recovers
+ * to the same state:
+ *   1. books.txt.log      renamed to books.txt.log.old, new log started
+ *   2. snapshot written to books.txt.tmp, fsynced, renamed to books.txt.new
+ *   3. books.txt.log.old  deleted
+ *   4. books.txt.new      renamed over books.txt.snap
+ *
+ * A record torn by a crash at the tail of a log is cut off before the log
+ * is replayed, so records appended after recovery start on a line of
+ * their own.
+ */
+public final class BookStore implements Closeable {
+    private static final String ADD = "A";
+    private static final String REMOVE = "R";
+
+    private static final int SYNC_BATCH = 256;          // records per group commit
+    private static final long SYNC_INTERVAL_MS = 50;     // max delay before pending records are fsynced
+    private static final int DEFAULT_COMPACT_THRESHOLD = 8192;
+    private static final Metrics.Counter LOG_BYTES = Metrics.counter("store.log.bytes");
+    private static final Metrics.Counter SNAPSHOT_BYTES = Metrics.counter("store.snapshot.bytes");
+    private static final Metrics.Counter CSV_BYTES = Metrics.counter("store.csv.bytes");
+    private static final Metrics.Counter COMPACTIONS = Metrics.counter("store.compactions");
+    private static final LatencyHistogram SYNC = Metrics.histogram("store.sync");
+
+    private final Path csvFile;
+    private final Path snapshotFile;
+    private final Path logFile;
+    private final Path oldLogFile;
+    private final Path tmpFile;
+    private final Path newFile;
+    private final int compactThreshold;
+
+    private FileOutputStream logStream;
+    private Writer logWriter;
+    private int pending;      // records written but not yet fsynced
+    private int logRecords;   // records in the current log
+    private Future<?> compaction;
+    private Thread shutdownHook;  // flushes the log if the JVM exits before close()
+
+    private final ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "book-store");
+        t.setDaemon(true);
+        return t;
+    });
+    // compactions get their own thread: the sync timer above blocks on the store's monitor,
+    // which close() and checkpoint() hold while they wait for a compaction to finish
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "book-store-compact");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public BookStore(String fileName) {
+        this(fileName, DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    public BookStore(String fileName, int compactThreshold) {
+        this.csvFile = Paths.get(fileName);
+        this.snapshotFile = Paths.get(fileName + ".snap");
+        this.logFile = Paths.get(fileName + ".log");
+        this.oldLogFile = Paths.get(fileName + ".log.old");
+        this.tmpFile = Paths.get(fileName + ".tmp");
+        this.newFile = Paths.get(fileName + ".new");
+        this.compactThreshold = compactThreshold;
+        background.scheduleWithFixedDelay(this::syncQuietly, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        shutdownHook = new Thread(this::close, "book-store-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Recovers the catalogue: finishes an interrupted compaction, reads the
+     * snapshot and replays any log records on top of it.
+     *
+     * @param onSnapshot receives the snapshot books in file order (sorted, unless they come from the CSV
+     *                   file); entries are decoded on access
+     * @param onAdd      replays an ADD record
+     * @param onRemove   replays a REMOVE record
+     * @return true if log records were replayed
+     */
+    public synchronized boolean recover(Consumer<List<Book>> onSnapshot, Consumer<Book> onAdd,
+                                        Consumer<Book> onRemove) throws IOException {
+        if (Files.exists(newFile)) {
+            // crashed after step 2: the new snapshot already contains the old log
+            Files.deleteIfExists(oldLogFile);
+            Files.move(newFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.deleteIfExists(tmpFile);
+
+        onSnapshot.accept(readSnapshot());
+        int replayed = replay(oldLogFile, onAdd, onRemove) + replay(logFile, onAdd, onRemove);
+        logRecords = replayed;
+        openLog();
+        return replayed > 0;
+    }
+
+    // Appends an ADD record
+    public synchronized void logAdd(Book book) {
+        append(ADD, book);
+    }
+
+    // Appends a REMOVE record
+    public synchronized void logRemove(Book book) {
+        append(REMOVE, book);
+    }
+
+    // True when the log has grown past the threshold and no compaction is running
+    public synchronized boolean compactionDue() {
+        return logRecords >= compactThreshold && (compaction == null || compaction.isDone());
+    }
+
+    /**
+     * Starts a background compaction if the log has grown past the threshold
+     * and none is running yet. The catalogue is read and the log rolled under
+     * the store's lock; the caller must keep writers from changing the
+     * catalogue without logging it in between.
+     *
+     * @param catalogue supplies the current books in sorted order; called on the caller's thread
+     */
+    public synchronized void maybeCompact(Supplier<List<Book>> catalogue) {
+        if (!compactionDue()) {
+            return;
+        }
+        List<Book> books = catalogue.get();
+        rollLog();
+        COMPACTIONS.increment();
+        compaction = compactor.submit(() -> {
+            try {
+                installSnapshot(books);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Writes a full snapshot right away and empties the log. Like
+     * maybeCompact, the catalogue is read under the store's lock, after any
+     * running compaction has finished.
+     *
+     * @param catalogue supplies the current books in sorted order
+     * @return the books written
+     */
+    public synchronized List<Book> checkpoint(Supplier<List<Book>> catalogue) throws IOException {
+        awaitCompaction();
+        List<Book> books = catalogue.get();
+        rollLog();
+        installSnapshot(books);
+        return books;
+    }
+
+    /**
+     * Writes the books to the CSV file, replacing it atomically.
+     *
+     * @param books the books in sorted order
+     */
+    public void exportCsv(List<Book> books) throws IOException {
+        Path tmp = Paths.get(csvFile + ".csv.tmp");
+        CSV_BYTES.add(BookCsv.write(tmp, books));
+        Files.move(tmp, csvFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Forces all buffered records to disk
+    public synchronized void sync() throws IOException {
+        if (logWriter != null && pending > 0) {
+            long start = Metrics.start();
+            logWriter.flush();
+            logStream.getChannel().force(false);
+            pending = 0;
+            SYNC.recordSince(start);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            awaitCompaction();
+            sync();
+            if (logWriter != null) {
+                logWriter.close();
+                logWriter = null;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        background.shutdown();
+        compactor.shutdown();
+        removeShutdownHook();
+    }
+
+    // A closed store needs no hook; keeping it would pin the store until exit
+    private void removeShutdownHook() {
+        if (shutdownHook == null) {
+            return;
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // already shutting down: this close() is running in the hook itself
+        }
+        shutdownHook = null;
+    }
+
+    /**
+     * Appends REMOVE records for a batch of books without forcing any of them,
+     * so the caller can end the whole batch with a single sync().
+     *
+     * @param books the removed books
+     */
+    public synchronized void logRemoveAll(Collection<Book> books) {
+        try {
+            for (Book book : books) {
+                write(REMOVE, book);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void append(String op, Book book) {
+        try {
+            write(op, book);
+            if (pending >= SYNC_BATCH) {
+                sync();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void write(String op, Book book) throws IOException {
+        String record = op + "," + book.getListingId() + "," + toLine(book);
+        logWriter.write(record);
+        logWriter.write('\n');
+        if (Metrics.ENABLED) {
+            LOG_BYTES.add(utf8Length(record) + 1);
+        }
+        logRecords++;
+        pending++;
+    }
+
+    // bytes s takes in UTF-8, without encoding it
+    private static int utf8Length(String s) {
+        int bytes = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                bytes += c < 0x800 || Character.isSurrogate(c) ? 1 : 2;   // a surrogate pair is 4 bytes
+            }
+        }
+        return bytes;
+    }
+
+    private synchronized void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void openLog() throws IOException {
+        logStream = new FileOutputStream(logFile.toFile(), true);
+        logWriter = new BufferedWriter(new OutputStreamWriter(logStream, StandardCharsets.UTF_8));
+    }
+
+    // step 1: seal the current log as the old log and start an empty one
+    private void rollLog() {
+        try {
+            sync();
+            logWriter.close();
+            if (Files.exists(oldLogFile)) {
+                // left over from a failed compaction; fold it into the sealed log
+                try (OutputStream out = new FileOutputStream(oldLogFile.toFile(), true)) {
+                    Files.copy(logFile, out);
+                }
+                Files.delete(logFile);
+            } else {
+                Files.move(logFile, oldLogFile, StandardCopyOption.ATOMIC_MOVE);
+            }
+            logRecords = 0;
+            openLog();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // steps 2-4: write and install the snapshot, then drop the sealed log
+    private void installSnapshot(List<Book> books) throws IOException {
+        BookSnapshot.write(tmpFile, books);
+        if (Metrics.ENABLED) {
+            SNAPSHOT_BYTES.add(Files.size(tmpFile));
+        }
+        Files.move(tmpFile, newFile, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(oldLogFile);
+        Files.move(newFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void awaitCompaction() {
+        if (compaction != null) {
+            try {
+                compaction.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+            compaction = null;
+        }
+    }
+
+    private List<Book> readSnapshot() throws IOException {
+        if (Files.exists(snapshotFile)) {
+            return BookSnapshot.open(snapshotFile);
+        }
+        return importCsv();
+    }
+
+    // the books in the CSV file, in file order; not sorted
+    private List<Book> importCsv() {
+        try {
+            return BookCsv.read(csvFile);
+        } catch (IOException e) {
+            // File not found, ignore and proceed with an empty list
+            return new ArrayList<>();
+        }
+    }
+
+    private int replay(Path file, Consumer<Book> onAdd, Consumer<Book> onRemove) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        LogFields.trimTornTail(file);
+        int count = 0;
+        long maxId = 0;
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(",");
+                // a damaged record fails to parse and is skipped; records written
+                // before ids were logged have five fields
+                Book book = null;
+                if (parts.length == 6) {
+                    try {
+                        long id = Long.parseLong(parts[1].trim());
+                        Book fields = parse(parts, 2);
+                        if (fields != null) {
+                            book = new Book(fields.getTitle(), fields.getCourseCode(), fields.getPrice(), fields.getSeller(), id);
+                            maxId = Math.max(maxId, id);
+                        }
+                    } catch (NumberFormatException e) {
+                        // torn record
+                    }
+                } else if (parts.length == 5) {
+                    book = parse(parts, 1);
+                }
+                if (book == null) {
+                    continue;
+                }
+                if (ADD.equals(parts[0])) {
+                    onAdd.accept(book);
+                } else if (REMOVE.equals(parts[0])) {
+                    onRemove.accept(book);
+                }
+                count++;
+            }
+        }
+        Book.reserveListingIds(maxId);
+        return count;
+    }
+
+    // parses title,course,price,seller starting at parts[from]
+    private static Book parse(String[] parts, int from) {
+        if (parts.length - from != 4) {
+            return null;
+        }
+        try {
+            String title = LogFields.unescape(parts[from].trim());
+            String course = LogFields.unescape(parts[from + 1].trim());
+            double price = Double.parseDouble(parts[from + 2].trim());
+            String seller = LogFields.unescape(parts[from + 3].trim());
+            return new Book(title, course, price, seller);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String toLine(Book book) {
+        return LogFields.escape(book.getTitle()) + "," + LogFields.escape(book.getCourseCode()) + ","
+                + book.getPrice() + "," + LogFields.escape(book.getSeller());
+    }
+
+    // Main method to test log replay, compaction and recovery
+    public static void main(String[] args) throws Exception {
+        String file = Files.createTempDirectory("bookstore").resolve("books.txt").toString();
+        List<Book> catalogue = new ArrayList<>();
+
+        BookStore store = new BookStore(file, 100);
+        store.recover(catalogue::addAll, catalogue::add, catalogue::remove);
+        assert catalogue.isEmpty();
+        for (int i = 0; i < 1000; i++) {
+            Book book = i % 7 == 0
+                    ? new Book("Book " + i + ", 2nd ed. (100%)", "CS" + (i % 10), 10 + i, "Seller, " + i)
+                    : new Book("Book " + i, "CS" + (i % 10), 10 + i, "Seller " + i);
+            catalogue.add(book);
+            store.logAdd(book);
+            if (i % 3 == 0) {
+                catalogue.remove(book);
+                store.logRemove(book);
+            }
+            store.maybeCompact(() -> new ArrayList<>(catalogue));
+        }
+        store.close();
+
+        List<Book> recovered = new ArrayList<>();
+        BookStore reopened = new BookStore(file, 100);
+        reopened.recover(recovered::addAll, recovered::add, recovered::remove);
+        assert recovered.equals(catalogue) : recovered.size() + " != " + catalogue.size();
+        for (int i = 0; i < recovered.size(); i++) {
+            assert recovered.get(i).getListingId() == catalogue.get(i).getListingId();
+        }
+
+        // a comma in a title or seller must survive replay of the log, not just the snapshot
+        reopened.checkpoint(() -> recovered);
+        Book comma = new Book("Calculus, Early Transcendentals", "MATH101", 42.5, "Smith, J.");
+        reopened.logAdd(comma);
+        reopened.close();
+        List<Book> replayed = new ArrayList<>();
+        reopened = new BookStore(file, 100);
+        assert reopened.recover(replayed::addAll, replayed::add, replayed::remove);
+        assert replayed.size() == recovered.size() + 1;
+        Book last = replayed.get(replayed.size() - 1);
+        assert last.equals(comma) && last.getListingId() == comma.getListingId() && last.getPrice() == 42.5 : last;
+        replayed.remove(last);
+
+        reopened.checkpoint(() -> recovered);
+        assert Files.size(Paths.get(file + ".log")) == 0;
+        reopened.exportCsv(recovered);
+        reopened.close();
+        assert BookSnapshot.open(Paths.get(file + ".snap")).equals(recovered);
+        assert Files.readAllLines(Paths.get(file)).size() == recovered.size();
+
+        // a record torn by a crash is cut off, not glued to the records appended after it
+        Book alpha = new Book("Alpha", "CS1", 10, "Ann");
+        Book beta = new Book("Beta", "CS2", 20, "Bob");
+        reopened = new BookStore(file, 100);
+        reopened.recover(books -> { }, book -> { }, book -> { });
+        reopened.logAdd(alpha);
+        reopened.close();
+        Files.write(Paths.get(file + ".log"), "A,999,Half".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        reopened = new BookStore(file, 100);
+        reopened.recover(books -> { }, book -> { }, book -> { });
+        reopened.logAdd(beta);
+        reopened.close();
+        List<Book> torn = new ArrayList<>();
+        reopened = new BookStore(file, 100);
+        reopened.recover(torn::addAll, torn::add, torn::remove);
+        reopened.close();
+        assert torn.size() == recovered.size() + 2 && torn.containsAll(List.of(alpha, beta)) : torn.size();
+        System.out.println("Recovered " + recovered.size() + " books from snapshot + log.");
+    }
+}
@@ -0,0 +1,202 @@
+package bookSystem;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Table model over BookManager's sorted catalogue that only loads the rows
+ * a JTable actually paints. Rows are fetched a page at a time with
+ * getBooksPageAsync, off the Event Dispatch Thread; until its page arrives
+ * a row shows a placeholder. A bounded number of pages is kept, least
+ * recently used first out, so scrolling through a huge catalogue holds only
+ * a few hundred Book references. A page that fails to load is reported to
+ * the error handler and fetched again the next time one of its rows is
+ * painted.
+ *
+ * Like every Swing model it must only be used on the Event Dispatch Thread.
+ */
+class BookTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    static final int PAGE_SIZE = 100;
+    private static final int MAX_PAGES = 32;
+    private static final String LOADING = "…";
+    private static final String[] COLUMNS = {"Title", "Course Code", "Price", "Seller"};
+
+    private final transient BookManager bookManager;
+    private final transient Consumer<Throwable> onError;
+    private final transient Map<Integer, List<Book>> pages = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<Book>> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    private final transient Set<Integer> loading = new HashSet<>();
+    private int rowCount;
+    private int generation;         // bumped by refresh, so pages loaded before it are dropped
+
+    BookTableModel(BookManager bookManager) {
+        this(bookManager, Throwable::printStackTrace);
+    }
+
+    // onError is called on the Event Dispatch Thread when the row count or a page fails to load
+    BookTableModel(BookManager bookManager, Consumer<Throwable> onError) {
+        this.bookManager = bookManager;
+        this.onError = onError;
+    }
+
+    // Forgets the loaded rows and fetches the row count again
+    void refresh() {
+        int expected = ++generation;
+        pages.clear();
+        loading.clear();
+        bookManager.sizeAsync().whenComplete((size, error) -> SwingUtilities.invokeLater(() -> {
+            if (expected != generation) {
+                return;
+            }
+            if (error != null) {
+                report(error);
+                return;
+            }
+            rowCount = size;
+            fireTableDataChanged();
+        }));
+    }
+
+    // The book on a row, or null while its page is loading
+    Book getBook(int row) {
+        int page = row / PAGE_SIZE;
+        List<Book> books = pages.get(page);
+        if (books == null) {
+            load(page);
+            return null;
+        }
+        int index = row % PAGE_SIZE;
+        return index < books.size() ? books.get(index) : null;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Book book = getBook(row);
+        if (book == null) {
+            return column == 0 ? LOADING : "";
+        }
+        switch (column) {
+            case 0: return book.getTitle();
+            case 1: return book.getCourseCode();
+            case 2: return String.format("$%.2f", book.getPrice());
+            default: return book.getSeller();
+        }
+    }
+
+    private void load(int page) {
+        if (!loading.add(page)) {
+            return;
+        }
+        int expected = generation;
+        bookManager.getBooksPageAsync(page, PAGE_SIZE).whenComplete((books, error) -> SwingUtilities.invokeLater(() -> {
+            if (expected != generation) {
+                return;
+            }
+            loading.remove(page);   // on failure too, so the page is fetched again when next painted
+            if (error != null) {
+                report(error);
+                return;
+            }
+            pages.put(page, books);
+            int first = page * PAGE_SIZE;
+            int last = Math.min(rowCount, first + PAGE_SIZE) - 1;
+            if (first <= last) {
+                fireTableRowsUpdated(first, last);
+            }
+        }));
+    }
+
+    private void report(Throwable error) {
+        onError.accept(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+    }
+
+    // Checks lazy loading against a catalogue of generated books; runs headless
+    public static void main(String[] args) throws Exception {
+        java.io.File file = java.io.File.createTempFile("table", ".txt");
+        file.deleteOnExit();
+        new java.io.File(file.getPath() + ".log").deleteOnExit();
+        new java.io.File(file.getPath() + ".snap").deleteOnExit();
+        BookManager bookManager = new BookManager(file.getPath());
+        int count = 10_000;
+        for (int i = 0; i < count; i++) {
+            bookManager.addBook(new Book(String.format("Title %05d", i), "CS101", 10 + i % 50, "Seller " + i % 7));
+        }
+
+        BookTableModel model = new BookTableModel(bookManager);
+        List<int[]> updates = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch counted = new CountDownLatch(1);
+        CountDownLatch loaded = new CountDownLatch(1);
+        SwingUtilities.invokeAndWait(() -> {
+            model.addTableModelListener(e -> {
+                updates.add(new int[] {e.getFirstRow(), e.getLastRow()});
+                if (model.getRowCount() > 0 && e.getFirstRow() == 0) {
+                    counted.countDown();
+                }
+                if (e.getFirstRow() == 5000) {
+                    loaded.countDown();
+                }
+            });
+            model.refresh();
+        });
+        assert counted.await(10, TimeUnit.SECONDS);
+        SwingUtilities.invokeAndWait(() -> {
+            assert model.getRowCount() == count;
+            assert model.getValueAt(5042, 0).equals(LOADING);   // not fetched yet
+        });
+        assert loaded.await(10, TimeUnit.SECONDS);
+        SwingUtilities.invokeAndWait(() -> {
+            assert model.getValueAt(5042, 0).equals("Title 05042") : model.getValueAt(5042, 0);
+            assert model.getValueAt(5042, 2).equals("$52.00");
+            assert model.pages.size() == 1;
+            for (int row = 0; row < count; row += PAGE_SIZE) {
+                model.getValueAt(row, 0);
+            }
+            assert model.loading.size() <= count / PAGE_SIZE;
+        });
+        Thread.sleep(500);
+        SwingUtilities.invokeAndWait(() -> {
+            assert model.pages.size() <= MAX_PAGES : model.pages.size();
+            assert model.loading.isEmpty();
+        });
+
+        // a page that fails to load is reported, and is not left marked as loading
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch failed = new CountDownLatch(1);
+        BookTableModel failing = new BookTableModel(bookManager, error -> {
+            errors.add(error);
+            failed.countDown();
+        });
+        SwingUtilities.invokeAndWait(() -> failing.load(-1));
+        assert failed.await(10, TimeUnit.SECONDS);
+        SwingUtilities.invokeAndWait(() -> {
+            assert errors.size() == 1 && !(errors.get(0) instanceof CompletionException) : errors;
+            assert failing.loading.isEmpty() && failing.pages.isEmpty();
+        });
+        System.out.println("Book table model tests passed (" + updates.size() + " model events).");
+    }
+}
@@ -0,0 +1,212 @@
+package bookSystem;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * The little JSON the REST API needs: writing values straight to a Writer,
+ * so large responses are streamed instead of built up as one string, and
+ * parsing the flat request objects the frontend sends.
+ */
+final class Json {
+
+    private Json() {
+    }
+
+    // writes s as a quoted, escaped JSON string
+    static void string(Writer out, String s) throws IOException {
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    // writes a number, using integer form when it has no fraction
+    static void number(Writer out, double d) throws IOException {
+        if (d == Math.rint(d) && Math.abs(d) < 1e15) {
+            out.write(Long.toString((long) d));
+        } else {
+            out.write(Double.toString(d));
+        }
+    }
+
+    static void book(Writer out, Book book) throws IOException {
+        out.write("{\"id\":");
+        out.write(Long.toString(book.getListingId()));
+        out.write(",\"title\":");
+        string(out, book.getTitle());
+        out.write(",\"courseCode\":");
+        string(out, book.getCourseCode());
+        out.write(",\"price\":");
+        number(out, book.getPrice());
+        out.write(",\"seller\":");
+        string(out, book.getSeller());
+        out.write('}');
+    }
+
+    static void request(Writer out, Request request) throws IOException {
+        out.write("{\"id\":");
+        out.write(Long.toString(request.getId()));
+        out.write(",\"title\":");
+        string(out, request.getTitle());
+        out.write(",\"requester\":");
+        string(out, request.getRequester());
+        out.write(",\"urgency\":");
+        out.write(Integer.toString(request.getUrgency()));
+        out.write('}');
+    }
+
+    /**
+     * Parses a JSON object whose values are strings, numbers, booleans or
+     * null. Nested objects and arrays are rejected.
+     *
+     * @return the members; numbers become Double
+     * @throws IllegalArgumentException if the text is not such an object
+     */
+    static Map<String, Object> parseObject(String text) {
+        Parser parser = new Parser(text);
+        Map<String, Object> result = parser.object();
+        parser.skipSpace();
+        if (parser.pos != text.length()) {
+            throw parser.error("trailing characters");
+        }
+        return result;
+    }
+
+    private static final class Parser {
+        final String text;
+        int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        Map<String, Object> object() {
+            Map<String, Object> members = new LinkedHashMap<>();
+            expect('{');
+            skipSpace();
+            if (peek() == '}') {
+                pos++;
+                return members;
+            }
+            while (true) {
+                skipSpace();
+                String name = string();
+                skipSpace();
+                expect(':');
+                skipSpace();
+                members.put(name, value());
+                skipSpace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return members;
+                }
+            }
+        }
+
+        Object value() {
+            char c = peek();
+            if (c == '"') {
+                return string();
+            }
+            if (text.startsWith("true", pos)) {
+                pos += 4;
+                return Boolean.TRUE;
+            }
+            if (text.startsWith("false", pos)) {
+                pos += 5;
+                return Boolean.FALSE;
+            }
+            if (text.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            }
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            try {
+                return Double.valueOf(text.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw error("unexpected value");
+            }
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (pos >= text.length()) {
+                    throw error("unterminated string");
+                }
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char e = pos < text.length() ? text.charAt(pos++) : 0;
+                switch (e) {
+                    case '"': case '\\': case '/': sb.append(e); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("bad escape");
+                        }
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        throw error("bad escape");
+                }
+            }
+        }
+
+        void skipSpace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        char peek() {
+            if (pos >= text.length()) {
+                throw error("unexpected end");
+            }
+            return text.charAt(pos);
+        }
+
+        void expect(char c) {
+            if (peek() != c) {
+                throw error("expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Bad JSON at " + pos + ": " + message);
+        }
+    }
+}
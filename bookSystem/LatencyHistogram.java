@@ -0,0 +1,155 @@
+package bookSystem;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds, in the style of HdrHistogram:
+ * buckets are laid out by powers of two, each split into 16 linear
+ * sub-buckets, so any recorded value is reported within 1/16 (6.25%) of
+ * itself over the whole range of a long, in a fixed 960-slot array.
+ *
+ * Recording is lock-free and allocation-free (one atomic increment plus
+ * two LongAdder updates), so many threads can record on a hot path. Reads
+ * are not atomic snapshots: a percentile computed while others record may
+ * miss values recorded concurrently.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int SLOTS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    // Records one duration; negative values count as 0
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.getAndIncrement(slot(value));
+        count.increment();
+        sum.add(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    // Records the time since start, a System.nanoTime() reading from Metrics.start(); no-op when metrics are off
+    public void recordSince(long start) {
+        if (Metrics.ENABLED) {
+            record(System.nanoTime() - start);
+        }
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    // Mean duration, or 0 when nothing was recorded
+    public double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * The duration below which the given fraction of the recorded values fall.
+     *
+     * @param fraction between 0 and 1, e.g. 0.99
+     * @return the highest value equivalent to the bucket holding that rank, at most max(); 0 when empty
+     */
+    public long percentile(double fraction) {
+        long total = 0;
+        long[] snapshot = new long[SLOTS];
+        for (int i = 0; i < SLOTS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < SLOTS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highest(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // slot of a non-negative value: values below 16 get their own slot, larger ones
+    // are grouped by their leading bit and the four bits after it
+    static int slot(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // largest value that falls in a slot
+    static long highest(int slot) {
+        if (slot < SUB_BUCKETS) {
+            return slot;
+        }
+        int shift = slot / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + slot % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    // Checks bucket bounds and percentiles against exact values
+    public static void main(String[] args) throws Exception {
+        for (long value : new long[] {0, 1, 15, 16, 17, 31, 32, 1000, 123_456_789, Long.MAX_VALUE}) {
+            int slot = slot(value);
+            assert slot < SLOTS && highest(slot) >= value : value;
+            assert slot == 0 || highest(slot - 1) < value : value;
+            assert highest(slot) - value <= value / SUB_BUCKETS : value;
+        }
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        assert histogram.percentile(0.5) == 0 && histogram.mean() == 0;
+        for (int i = 1; i <= 100_000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assert histogram.count() == 100_000 && histogram.max() == 100_000_000L;
+        for (double fraction : new double[] {0.5, 0.9, 0.99, 0.999}) {
+            long exact = (long) (fraction * 100_000) * 1000L;
+            long reported = histogram.percentile(fraction);
+            assert reported >= exact && reported - exact <= exact / SUB_BUCKETS : fraction + ": " + reported;
+        }
+        assert histogram.percentile(1) == histogram.max();
+
+        // concurrent recording loses nothing
+        LatencyHistogram shared = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 250_000; i++) {
+                    shared.record(i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert shared.count() == 1_000_000 && shared.max() == 249_999;
+        System.out.println("LatencyHistogram tests passed.");
+
+        long start = System.nanoTime();
+        int n = 20_000_000;
+        for (int i = 0; i < n; i++) {
+            histogram.record(i & 0xFFFFF);
+        }
+        System.out.printf("record: %.1f ns each, single thread%n", (System.nanoTime() - start) / (double) n);
+    }
+}
@@ -0,0 +1,48 @@
+package bookSystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A storage engine BookManager can keep its listings in instead of one Book
+ * object per listing in its maps and trees; see BookManager.Storage.
+ *
+ * Listings keep the id they were created with. Titles are matched by their
+ * normalized key (BookManager.titleKey), and the copies of a title are kept
+ * in the order they were listed. Implementations are thread-safe.
+ */
+interface ListingTable extends Closeable {
+    // Stores a listing under its listing id
+    void add(Book book);
+
+    // Number of copies available for a normalized title key
+    int availableCount(String key);
+
+    // Removes and returns up to max copies of a title, oldest first
+    List<Book> take(String key, int max);
+
+    // Removes that very listing (by id), or with exact == false the oldest equal copy if that
+    // one is gone; returns the listing removed, or null
+    Book remove(Book book, boolean exact);
+
+    // The listing with the given id, or null
+    Book get(long listingId);
+
+    // The copies of a title, oldest first
+    List<Book> copies(String key);
+
+    // Each title with at least one copy, spelled as it was first listed
+    List<String> titles();
+
+    int size();
+
+    // Number of titles with at least one copy
+    int titleCount();
+
+    // All listings, in no particular order
+    List<Book> toList();
+
+    // Forces the listings to durable storage, if the table has any
+    void sync() throws IOException;
+}
@@ -0,0 +1,393 @@
+package bookSystem;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A lock-free sorted set based on a skip list, usable from many threads at once.
+ *
+ * Every level is a linked list. A deleted node has each of its next slots
+ * replaced by a Marker wrapping the old successor, so a CAS that expects a
+ * plain successor fails on a deleted node. Insertion links the new node into the bottom level with a single CAS (which
+ * is the moment it becomes visible) and then into the upper levels. Removal
+ * first marks the node's slots top-down; marking the bottom level is the
+ * moment it is removed. Marked nodes are unlinked lazily by any thread that
+ * walks past them.
+ *
+ * The iterator is weakly consistent: it never throws
+ * ConcurrentModificationException, returns every element present for its whole
+ * lifetime, and may or may not return elements added or removed meanwhile.
+ */
+public class LockFreeSkipList<E extends Comparable<E>> implements Iterable<E>, SetADT<E> {
+    private static final int MAX_LEVEL = 32;
+
+    private final Node<E> head = new Node<>(null, MAX_LEVEL - 1);
+    private final LongAdder size = new LongAdder();
+    // highest level any node was linked at; searches start here instead of at MAX_LEVEL
+    private final AtomicInteger topLevel = new AtomicInteger();
+
+    private static final VarHandle NEXT = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    // stands in a next slot of a deleted node, wrapping the successor it had
+    private static final class Marker {
+        final Node<?> node;
+
+        Marker(Node<?> node) {
+            this.node = node;
+        }
+    }
+
+    // node class for each element; next[i] holds the successor on level i
+    // (a Node, or null at the end), or a Marker once the node is deleted
+    private static final class Node<E> {
+        final E data;
+        final Object[] next;
+
+        Node(E data, int topLevel) {
+            this.data = data;
+            this.next = new Object[topLevel + 1];
+        }
+
+        int topLevel() {
+            return next.length - 1;
+        }
+
+        Object slot(int level) {
+            return NEXT.getAcquire(next, level);
+        }
+
+        boolean casSlot(int level, Object expected, Object update) {
+            return NEXT.compareAndSet(next, level, expected, update);
+        }
+    }
+
+    // the successor recorded in a slot, whether or not it is marked
+    @SuppressWarnings("unchecked")
+    private static <E> Node<E> successor(Object slot) {
+        return (Node<E>) (slot instanceof Marker ? ((Marker) slot).node : slot);
+    }
+
+    public boolean add(E data) {
+        int topLevel = randomLevel();
+        // raise the hint before linking so searches never start below a linked level
+        if (topLevel > this.topLevel.get()) {
+            this.topLevel.accumulateAndGet(topLevel, Math::max);
+        }
+        Node<E>[] preds = newPath();
+        Node<E>[] succs = newPath();
+        while (true) {
+            if (find(data, preds, succs)) {
+                return false;
+            }
+            Node<E> node = new Node<>(data, topLevel);
+            for (int level = 0; level <= topLevel; level++) {
+                node.next[level] = succs[level];
+            }
+            // linking the bottom level makes the element part of the set
+            if (!preds[0].casSlot(0, succs[0], node)) {
+                continue;
+            }
+            size.increment();
+
+            // the upper levels are only shortcuts; give up on them if the node is removed meanwhile
+            for (int level = 1; level <= topLevel; level++) {
+                while (true) {
+                    Node<E> succ = succs[level];
+                    Object own = node.slot(level);
+                    if (own instanceof Marker) {
+                        return true;
+                    }
+                    if (own != succ && !node.casSlot(level, own, succ)) {
+                        continue;
+                    }
+                    if (preds[level].casSlot(level, succ, node)) {
+                        break;
+                    }
+                    if (!find(data, preds, succs) || succs[0] != node) {
+                        return true;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    public boolean remove(E data) {
+        Node<E>[] preds = newPath();
+        Node<E>[] succs = newPath();
+        if (!find(data, preds, succs)) {
+            return false;
+        }
+        Node<E> victim = succs[0];
+
+        // logically delete the upper levels top-down
+        for (int level = victim.topLevel(); level >= 1; level--) {
+            Object slot = victim.slot(level);
+            while (!(slot instanceof Marker)) {
+                victim.casSlot(level, slot, new Marker((Node<?>) slot));
+                slot = victim.slot(level);
+            }
+        }
+
+        // whoever marks the bottom level owns the removal
+        while (true) {
+            Object slot = victim.slot(0);
+            if (slot instanceof Marker) {
+                return false;
+            }
+            if (victim.casSlot(0, slot, new Marker((Node<?>) slot))) {
+                size.decrement();
+                find(data, preds, succs);   // physically unlinks the victim
+                return true;
+            }
+        }
+    }
+
+    // checks whether the element is in the set, without helping to unlink
+    public boolean contains(E data) {
+        Node<E> pred = head;
+        Node<E> current = null;
+        for (int level = topLevel.get(); level >= 0; level--) {
+            current = successor(pred.slot(level));
+            while (current != null) {
+                Object slot = current.slot(level);
+                Node<E> succ = successor(slot);
+                if (slot instanceof Marker) {
+                    current = succ;
+                    continue;
+                }
+                if (current.data.compareTo(data) < 0) {
+                    pred = current;
+                    current = succ;
+                } else {
+                    break;
+                }
+            }
+        }
+        return current != null && current.data.compareTo(data) == 0;
+    }
+
+    /**
+     * Fills preds/succs with the nodes around data on every level, unlinking
+     * marked nodes on the way.
+     *
+     * @return true if an unmarked node holding data is in the bottom level
+     */
+    private boolean find(E data, Node<E>[] preds, Node<E>[] succs) {
+        retry:
+        while (true) {
+            Node<E> pred = head;
+            int top = topLevel.get();
+            for (int level = MAX_LEVEL - 1; level > top; level--) {
+                preds[level] = head;
+                succs[level] = null;
+            }
+            for (int level = top; level >= 0; level--) {
+                Object predSlot = pred.slot(level);
+                if (predSlot instanceof Marker) {
+                    continue retry;
+                }
+                Node<E> current = successor(predSlot);
+                while (current != null) {
+                    Object slot = current.slot(level);
+                    Node<E> succ = successor(slot);
+                    if (slot instanceof Marker) {
+                        // snip the deleted node out of this level
+                        if (!pred.casSlot(level, current, succ)) {
+                            continue retry;
+                        }
+                        current = succ;
+                        continue;
+                    }
+                    if (current.data.compareTo(data) < 0) {
+                        pred = current;
+                        current = succ;
+                    } else {
+                        break;
+                    }
+                }
+                preds[level] = pred;
+                succs[level] = current;
+            }
+            return succs[0] != null && succs[0].data.compareTo(data) == 0;
+        }
+    }
+
+    // geometric level distribution with p = 1/2: level k with probability 2^-(k+1)
+    private static int randomLevel() {
+        return Integer.numberOfTrailingZeros(ThreadLocalRandom.current().nextInt() | (1 << (MAX_LEVEL - 1)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> Node<E>[] newPath() {
+        return (Node<E>[]) new Node<?>[MAX_LEVEL];
+    }
+
+    // number of elements; exact when no updates are in flight
+    public int size() {
+        return size.intValue();
+    }
+
+    public boolean isEmpty() {
+        return head.slot(0) == null || size() == 0;
+    }
+
+    // weakly consistent in-order iterator over the bottom level
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private Node<E> next = advance(head);
+
+            private Node<E> advance(Node<E> node) {
+                Node<E> current = successor(node.slot(0));
+                while (current != null) {
+                    Object slot = current.slot(0);
+                    if (!(slot instanceof Marker)) {
+                        return current;
+                    }
+                    current = successor(slot);
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public E next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                E data = next.data;
+                next = advance(next);
+                return data;
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        LockFreeSkipList<Integer> list = new LockFreeSkipList<>();
+        for (int val : new int[] {10, 5, 15, 2, 7, 12, 17}) {
+            list.add(val);
+        }
+        assert !list.add(7);
+        assert list.remove(2) && list.remove(15) && !list.remove(15);
+        StringBuilder order = new StringBuilder();
+        for (int val : list) {
+            order.append(val).append(' ');
+        }
+        System.out.println(order); // Output: 5 7 10 12 17
+        assert order.toString().equals("5 7 10 12 17 ") && list.size() == 5 && list.contains(12);
+
+        // Concurrent adds/removes of disjoint and shared keys leave a consistent set
+        LockFreeSkipList<Integer> shared = new LockFreeSkipList<>();
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            done.add(pool.submit(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    shared.add(i * threads + id);
+                    if (i % 2 == 1) {
+                        assert shared.remove((i - 1) * threads + id);
+                    }
+                    for (Integer ignored : shared) {
+                        if (i % 10_000 != 0) {
+                            break;   // iterators run concurrently without CME
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : done) {
+            f.get();
+        }
+        pool.shutdown();
+        int count = 0;
+        Integer previous = null;
+        for (int val : shared) {
+            assert previous == null || previous < val;
+            previous = val;
+            count++;
+        }
+        assert count == threads * 50_000 && shared.size() == count;
+
+        // Mixed read/write throughput: 80% contains, 10% add, 10% remove
+        System.out.println("\nMixed workload, ops/s (MyTreeSet+lock, ConcurrentSkipListSet, LockFreeSkipList):");
+        int maxThreads = Math.min(32, Runtime.getRuntime().availableProcessors() * 2);
+        for (int n = 1; n <= maxThreads; n *= 2) {
+            MyTreeSet<Integer> tree = new MyTreeSet<>();
+            ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+            SetADT<Integer> locked = new SetADT<Integer>() {
+                public boolean add(Integer e) {
+                    lock.writeLock().lock();
+                    try { return tree.add(e); } finally { lock.writeLock().unlock(); }
+                }
+                public boolean remove(Integer e) {
+                    lock.writeLock().lock();
+                    try { return tree.remove(e); } finally { lock.writeLock().unlock(); }
+                }
+                public boolean contains(Integer e) {
+                    lock.readLock().lock();
+                    try { return tree.contains(e); } finally { lock.readLock().unlock(); }
+                }
+                public int size() { return tree.size(); }
+                public boolean isEmpty() { return tree.isEmpty(); }
+                public Iterator<Integer> iterator() { return tree.iterator(); }
+            };
+            ConcurrentSkipListSet<Integer> jdk = new ConcurrentSkipListSet<>();
+            SetADT<Integer> jdkSet = new SetADT<Integer>() {
+                public boolean add(Integer e) { return jdk.add(e); }
+                public boolean remove(Integer e) { return jdk.remove(e); }
+                public boolean contains(Integer e) { return jdk.contains(e); }
+                public int size() { return jdk.size(); }
+                public boolean isEmpty() { return jdk.isEmpty(); }
+                public Iterator<Integer> iterator() { return jdk.iterator(); }
+            };
+            System.out.printf("%2d threads: %,12.0f %,12.0f %,12.0f%n", n,
+                    mixedWorkload(locked, n), mixedWorkload(jdkSet, n), mixedWorkload(new LockFreeSkipList<>(), n));
+        }
+    }
+
+    private static double mixedWorkload(SetADT<Integer> set, int threads) throws Exception {
+        int keys = 1 << 20;
+        int ops = 500_000;
+        for (int i = 0; i < keys; i += 2) {
+            set.add(i);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            done.add(pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                start.await();
+                for (int i = 0; i < ops; i++) {
+                    int key = random.nextInt(keys);
+                    int op = random.nextInt(10);
+                    if (op == 0) {
+                        set.add(key);
+                    } else if (op == 1) {
+                        set.remove(key);
+                    } else {
+                        set.contains(key);
+                    }
+                }
+                return null;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> f : done) {
+            f.get();
+        }
+        long elapsed = System.nanoTime() - begin;
+        pool.shutdown();
+        return threads * (double) ops / (elapsed / 1e9);
+    }
+}
@@ -0,0 +1,82 @@
+package bookSystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * %-escaping for the comma-separated text records of BookStore's log and
+ * RequestStore's journal: ',', '%' and line breaks inside a field become
+ * %XX, so splitting a record on ',' always yields its fields.
+ *
+ * Records written before fields were escaped may hold a bare '%'; one that
+ * is not followed by two hex digits is kept as it is.
+ *
+ * Both logs are cut back to their last complete line with trimTornTail
+ * before they are replayed and appended to.
+ */
+final class LogFields {
+    private LogFields() {
+    }
+
+    static String escape(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('%') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length() + 8);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == ',' || c == '%' || c == '\n' || c == '\r') {
+                sb.append('%').append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 15, 16));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    static String unescape(String s) {
+        if (s.indexOf('%') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            int high = i + 2 < s.length() ? Character.digit(s.charAt(i + 1), 16) : -1;
+            int low = high >= 0 ? Character.digit(s.charAt(i + 2), 16) : -1;
+            if (c == '%' && low >= 0) {
+                sb.append((char) (high << 4 | low));
+                i += 2;
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    // cuts a log back to its last complete line, so a record torn by a crash is neither
+    // replayed (a torn "C,123" would read as "C,12") nor glued to the next record appended
+    static void trimTornTail(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            while (end > 0) {
+                int length = (int) Math.min(buffer.capacity(), end);
+                buffer.clear().limit(length);
+                channel.read(buffer, end - length);
+                for (int i = length - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        if (end - length + i + 1 < channel.size()) {
+                            channel.truncate(end - length + i + 1);
+                        }
+                        return;
+                    }
+                }
+                end -= length;
+            }
+            channel.truncate(0);
+        }
+    }
+}
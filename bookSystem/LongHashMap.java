@@ -0,0 +1,191 @@
+package bookSystem;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Hash map from primitive long keys to values, with open addressing and
+ * linear probing, so lookups and updates box nothing and allocate nothing
+ * outside of resizing. Removal shifts the following entries of the probe
+ * run back instead of leaving tombstones, so lookups never slow down after
+ * many deletes.
+ *
+ * Not thread-safe.
+ */
+public class LongHashMap<V> {
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private Object[] values;    // null marks a free slot
+    private int size;
+    private int mask;
+
+    public LongHashMap() {
+        this(16);
+    }
+
+    public LongHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // The value for key, or null
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Maps key to value.
+     *
+     * @param value the value, not null
+     * @return the previous value, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("null value for key " + key);
+        }
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > LOAD_FACTOR * keys.length) {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+    // Removes the mapping for key, returning its value or null
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = slot(key);
+        while (values[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (values[i] == null) {
+            return null;
+        }
+        V old = (V) values[i];
+        // close the gap: move back every later entry of the run whose home slot
+        // is not between the gap and its current position
+        int gap = i;
+        for (int j = (gap + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        values[gap] = null;
+        size--;
+        return old;
+    }
+
+    // Calls action with every value, in no particular order
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<V> action) {
+        for (Object value : values) {
+            if (value != null) {
+                action.accept((V) value);
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private int slot(long key) {
+        // Fibonacci hashing spreads sequential ids over the table
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int j = slot(oldKeys[i]);
+                while (values[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    // Checks the map against HashMap under random puts and removes, and compares speed
+    public static void main(String[] args) {
+        LongHashMap<String> map = new LongHashMap<>();
+        Map<Long, String> reference = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 200_000; i++) {
+            long key = random.nextInt(5000) * 1_000_003L;   // collide in the low bits on purpose
+            if (random.nextBoolean()) {
+                assert Objects.equals(map.put(key, "v" + i), reference.put(key, "v" + i));
+            } else {
+                assert Objects.equals(map.remove(key), reference.remove(key));
+            }
+            assert map.size() == reference.size();
+        }
+        for (Map.Entry<Long, String> entry : reference.entrySet()) {
+            assert entry.getValue().equals(map.get(entry.getKey()));
+        }
+        System.out.println("LongHashMap tests passed.");
+
+        int n = 5_000_000;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            LongHashMap<Object> primitive = new LongHashMap<>();
+            for (long id = 1; id <= n; id++) {
+                primitive.put(id, map);
+            }
+            for (long id = 1; id <= n; id++) {
+                primitive.remove(id);
+            }
+            long mid = System.nanoTime();
+            Map<Long, Object> boxed = new HashMap<>();
+            for (long id = 1; id <= n; id++) {
+                boxed.put(id, map);
+            }
+            for (long id = 1; id <= n; id++) {
+                boxed.remove(id);
+            }
+            long end = System.nanoTime();
+            System.out.printf("%,d puts + removes: LongHashMap %d ms, HashMap<Long, V> %d ms%n",
+                    n, (mid - start) / 1_000_000, (end - mid) / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package bookSystem;
+
+import java.util.*;
+
+/**
+ * LongHashMap's layout with primitive long values, for indexes from listing
+ * ids to row numbers or slab handles: a million entries are two arrays and
+ * no objects at all.
+ *
+ * Values must not be negative; MISSING marks a free slot and is what get
+ * returns for an absent key. Not thread-safe.
+ */
+class LongLongMap {
+    static final long MISSING = -1;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private long[] values;      // MISSING marks a free slot
+    private int size;
+    private int mask;
+
+    LongLongMap() {
+        this(16);
+    }
+
+    LongLongMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(values, MISSING);
+        mask = capacity - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // The value for key, or MISSING
+    long get(long key) {
+        for (int i = slot(key); values[i] != MISSING; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return MISSING;
+    }
+
+    // Maps key to a value >= 0, returning the previous value or MISSING
+    long put(long key, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("negative value " + value + " for key " + key);
+        }
+        int i = slot(key);
+        for (; values[i] != MISSING; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                long old = values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > LOAD_FACTOR * keys.length) {
+            resize(keys.length * 2);
+        }
+        return MISSING;
+    }
+
+    // Removes the mapping for key, returning its value or MISSING
+    long remove(long key) {
+        int i = slot(key);
+        while (values[i] != MISSING && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (values[i] == MISSING) {
+            return MISSING;
+        }
+        long old = values[i];
+        // backward-shift deletion, as in LongHashMap
+        int gap = i;
+        for (int j = (gap + 1) & mask; values[j] != MISSING; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        values[gap] = MISSING;
+        size--;
+        return old;
+    }
+
+    void clear() {
+        Arrays.fill(values, MISSING);
+        size = 0;
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(values, MISSING);
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != MISSING) {
+                int j = slot(oldKeys[i]);
+                while (values[j] != MISSING) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    // Checks the map against HashMap under random puts and removes
+    public static void main(String[] args) {
+        LongLongMap map = new LongLongMap();
+        Map<Long, Long> reference = new HashMap<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 200_000; i++) {
+            long key = random.nextInt(5000) * 1_000_003L;   // collide in the low bits on purpose
+            if (random.nextBoolean()) {
+                Long old = reference.put(key, (long) i);
+                assert map.put(key, i) == (old == null ? MISSING : old);
+            } else {
+                Long old = reference.remove(key);
+                assert map.remove(key) == (old == null ? MISSING : old);
+            }
+            assert map.size() == reference.size();
+        }
+        for (Map.Entry<Long, Long> entry : reference.entrySet()) {
+            assert map.get(entry.getKey()) == entry.getValue();
+        }
+        assert map.get(-5) == MISSING;
+        System.out.println("LongLongMap tests passed.");
+    }
+}
@@ -0,0 +1,11 @@
+package bookSystem;
+
+/*  Receives matches made by RequestManager in streaming mode.
+ *  Called on the thread that added the request or the listing, right after the
+ *  book has been taken from the BookManager.
+ */
+public interface MatchListener {
+
+    // A waiting or incoming request has been matched with an available book.
+    public abstract void matched(Request request, Book book);
+}
@@ -0,0 +1,228 @@
+package bookSystem;
+
+import javax.management.*;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide registry of the counters, latency histograms and gauges
+ * that BookManager, BookStore, MyTreeSet and RequestManager record on their
+ * hot paths. The same values are available as plain text (writeText, served
+ * by BookServer at /api/metrics) and as the attributes of the JMX MBean
+ * bookSystem:type=Metrics once registerMBean has been called.
+ *
+ * Metrics are on unless the JVM is started with -DbookSystem.metrics=false.
+ * ENABLED is a constant, so when they are off the JIT drops the recording
+ * code and the only cost left is the untaken branch.
+ *
+ * Names are dotted, e.g. "books.add"; histograms record nanoseconds and are
+ * reported in microseconds.
+ */
+public final class Metrics {
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("bookSystem.metrics", "true"));
+
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private Metrics() {
+    }
+
+    // A monotonically increasing count; updates are no-ops when metrics are off
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            if (ENABLED) {
+                value.increment();
+            }
+        }
+
+        public void add(long n) {
+            if (ENABLED) {
+                value.add(n);
+            }
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    // The counter with the given name, created on first use
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    // The histogram with the given name, created on first use
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    // Reports value under name, replacing any earlier gauge of that name
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // A start time for LatencyHistogram.recordSince, or 0 without reading the clock when metrics are off
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    // Every metric's current values by name, in name order
+    public static SortedMap<String, Number> snapshot() {
+        SortedMap<String, Number> values = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            String name = entry.getKey();
+            LatencyHistogram histogram = entry.getValue();
+            values.put(name + ".count", histogram.count());
+            values.put(name + ".mean_us", histogram.mean() / 1000);
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                values.put(name + "." + PERCENTILE_NAMES[i] + "_us", histogram.percentile(PERCENTILES[i]) / 1000.0);
+            }
+            values.put(name + ".max_us", histogram.max() / 1000.0);
+        }
+        return values;
+    }
+
+    // Writes one "name value" line per metric
+    public static void writeText(Writer out) throws IOException {
+        out.write("# bookSystem metrics" + (ENABLED ? "" : " (disabled)") + "\n");
+        for (Map.Entry<String, Number> entry : snapshot().entrySet()) {
+            Number value = entry.getValue();
+            out.write(entry.getKey());
+            out.write(' ');
+            out.write(value instanceof Double ? String.format(Locale.ROOT, "%.3f", value.doubleValue()) : value.toString());
+            out.write('\n');
+        }
+    }
+
+    // Registers the bookSystem:type=Metrics MBean with the platform MBean server, once
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("bookSystem:type=Metrics");
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsMBean(), name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // read-only MBean whose attributes are the entries of snapshot()
+    private static final class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            SortedMap<String, Number> values = snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException {
+            throw new MBeanException(new UnsupportedOperationException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            // metrics are created on first use, so the attribute list is rebuilt on every call
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Map.Entry<String, Number> entry : snapshot().entrySet()) {
+                attributes.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                        entry.getKey(), true, false, false));
+            }
+            return new MBeanInfo(getClass().getName(), "bookSystem counters, latencies and gauges",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+
+    // Exercises every kind of metric and reads it back as text and through JMX
+    public static void main(String[] args) throws Exception {
+        Counter counter = counter("test.events");
+        counter.increment();
+        counter.add(2);
+        gauge("test.depth", () -> 7);
+        LatencyHistogram histogram = histogram("test.op");
+        histogram.record(1500);
+        histogram.recordSince(start());
+        assert counter("test.events") == counter;
+        assert !ENABLED || counter.get() == 3;
+
+        StringWriter text = new StringWriter();
+        writeText(text);
+        assert text.toString().contains("\ntest.depth 7\n") : text;
+        assert !ENABLED || text.toString().contains("\ntest.events 3\n") : text;
+        assert text.toString().contains("\ntest.op.count " + (ENABLED ? 2 : 1) + "\n") : text;
+
+        registerMBean();
+        registerMBean();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("bookSystem:type=Metrics");
+        assert server.getAttribute(name, "test.depth").equals(7L);
+        assert server.getAttribute(name, "test.op.count").equals(ENABLED ? 2L : 1L);
+        assert Arrays.stream(server.getMBeanInfo(name).getAttributes()).anyMatch(a -> a.getName().equals("test.op.p99_us"));
+        System.out.println("Metrics tests passed.");
+
+        // what BookManager's hot paths record, on a small catalogue
+        java.io.File file = java.io.File.createTempFile("metrics", ".txt");
+        file.deleteOnExit();
+        new java.io.File(file.getPath() + ".log").deleteOnExit();
+        new java.io.File(file.getPath() + ".snap").deleteOnExit();
+        BookManager bookManager = new BookManager(file.getPath());
+        RequestManager requestManager = new RequestManager();
+        for (int i = 0; i < 20_000; i++) {
+            bookManager.addBook(new Book("Title " + i % 5000, "CS101", 10, "Seller " + i));
+            if (i % 4 == 0) {
+                requestManager.addRequest(new Request("Title " + i % 6000, "Reader " + i, 1 + i % 10));
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            bookManager.getBook("Title " + i);
+        }
+        requestManager.processRequests(bookManager);
+        bookManager.saveBooks();
+        text = new StringWriter();
+        writeText(text);
+        System.out.print(text);
+    }
+}
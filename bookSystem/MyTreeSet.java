@@ -1,11 +1,21 @@
 package bookSystem;
 import bookSystem.SetADT;
 
+import java.lang.reflect.Array;
 import java.util.*;
 
 public class MyTreeSet<E extends Comparable<E>> implements Iterable<E> ,SetADT<E> {
 	private Node root;
     private int size;
+    private int modCount;   // structural changes, so iterators can detect concurrent ones
+
+    // an AVL tree of 2^31 nodes is at most ~45 levels deep, so one reusable
+    // path buffer is enough for every iterative add/remove; it grows with the
+    // tree so that many small trees stay small
+    private static final int MAX_HEIGHT = 64;
+    // rebalancing work across all trees
+    private static final Metrics.Counter ROTATIONS = Metrics.counter("tree.rotations");
+    private Node[] path;
 
     // node class for each element in the tree
     private class Node{
@@ -13,12 +23,14 @@ public class MyTreeSet<E extends Comparable<E>> implements Iterable<E> ,SetADT<E
     	Node left;
     	Node right;
         int height;
+        int count;      // nodes in this subtree, for rank queries
 
     	Node (E data){
     		this.data =data;
     		left = null;
     		right = null;
             this.height = 1;
+            this.count = 1;
     	}
     }
 
@@ -28,12 +40,76 @@ public class MyTreeSet<E extends Comparable<E>> implements Iterable<E> ,SetADT<E
         return n.height;
     }
 
+    private int count(Node n) {
+        return n == null ? 0 : n.count;
+    }
+
     //constractor
     public MyTreeSet(){
     	root = null;
     	size = 0;
     }
 
+    /**
+     * Builds a height-balanced tree from the given elements in a single linear pass.
+     * The input is expected in ascending order; if it is not, it is sorted first.
+     * Duplicates are dropped, keeping the first occurrence like add() does.
+     *
+     * @param elements the elements, ideally already sorted
+     * @param sizeHint expected number of elements, used to size the staging buffer
+     * @return a new tree holding the distinct elements
+     */
+    public static <E extends Comparable<E>> MyTreeSet<E> fromSorted(Iterator<E> elements, int sizeHint) {
+        Object[] buffer = new Object[Math.max(sizeHint, 16)];
+        int count = 0;
+        boolean ordered = true;
+        while (elements.hasNext()) {
+            E element = elements.next();
+            if (count == buffer.length) {
+                buffer = Arrays.copyOf(buffer, count + (count >> 1));
+            }
+            if (ordered && count > 0 && element.compareTo(at(buffer, count - 1)) < 0) {
+                ordered = false;
+            }
+            buffer[count++] = element;
+        }
+        if (!ordered) {
+            // stable, so the first of several equal elements stays in front
+            Arrays.sort(buffer, 0, count);
+        }
+
+        // squeeze out duplicates in place
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || MyTreeSet.<E>at(buffer, i).compareTo(at(buffer, distinct - 1)) != 0) {
+                buffer[distinct++] = buffer[i];
+            }
+        }
+
+        MyTreeSet<E> tree = new MyTreeSet<>();
+        tree.root = tree.build(buffer, 0, distinct - 1);
+        tree.size = distinct;
+        return tree;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> E at(Object[] buffer, int i) {
+        return (E) buffer[i];
+    }
+
+    // builds a balanced subtree from buffer[lo..hi] using the middle element as root
+    private Node build(Object[] buffer, int lo, int hi) {
+        if (lo > hi) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        Node node = new Node(at(buffer, mid));
+        node.left = build(buffer, lo, mid - 1);
+        node.right = build(buffer, mid + 1, hi);
+        updateHeight(node);
+        return node;
+    }
+
     // if tree is empty
     public boolean isEmpty(){
     	return size ==0;
@@ -45,144 +121,497 @@ public class MyTreeSet<E extends Comparable<E>> implements Iterable<E> ,SetADT<E
     }
 
     public boolean add(E data){
-    	return helperAdd(root, data);
-    }
-    //add an element to the tree
-    private boolean helperAdd(Node current, E data){
-    	if(root== null){
-    		root = new Node(data);
-    		size++;
-    		return true;
-    	}
+        if (root == null) {
+            root = new Node(data);
+            size++;
+            modCount++;
+            return true;
+        }
 
-    	if (data.compareTo(current.data) < 0) {
-            // Go left and add if left is null
-            if (current.left == null) {
-                current.left = new Node(data);
-                size++;
-                return true;
-            } else {
-            	// else continue left
-                return helperAdd(current.left, data);
-            }
-        } else if (data.compareTo(current.data) > 0) {
-            // Go right and add if right is null
-            if (current.right == null) {
-                current.right = new Node(data);
-                size++;
-                return true;
+        // walk down to the insertion point, remembering the path for retracing
+        Node[] path = path();
+        int depth = 0;
+        Node current = root;
+        while (true) {
+            int cmp = data.compareTo(current.data);
+            if (cmp == 0) {
+                // compare returned 0-- duplicates--do not add
+                return false;
+            }
+            path[depth++] = current;
+            Node next = cmp < 0 ? current.left : current.right;
+            if (next == null) {
+                if (cmp < 0) {
+                    current.left = new Node(data);
+                } else {
+                    current.right = new Node(data);
+                }
+                break;
+            }
+            current = next;
+        }
+        size++;
+        modCount++;
+        retrace(path, depth);
+        return true;
+    }
 
-            } else // else continue going right
-                return helperAdd(current.right, data);
+    //remove an element
+    public boolean remove(E data){
+        Node[] path = path();
+        int depth = 0;
+        Node current = root;
+        while (current != null) {
+            int cmp = data.compareTo(current.data);
+            if (cmp == 0) {
+                break;
             }
-         else {
-            // compare returned 0-- duplicates--do not add
+            path[depth++] = current;
+            current = cmp < 0 ? current.left : current.right;
+        }
+        if (current == null) {
             return false;
         }
 
+        // Node with two children: move the inorder successor (smallest in the right subtree)
+        // up and unlink the successor's node instead
+        if (current.left != null && current.right != null) {
+            path[depth++] = current;
+            Node successor = current.right;
+            while (successor.left != null) {
+                path[depth++] = successor;
+                successor = successor.left;
+            }
+            current.data = successor.data;
+            current = successor;
+        }
+
+        // the node being unlinked has at most one child
+        Node child = current.left != null ? current.left : current.right;
+        if (depth == 0) {
+            root = child;
+        } else if (path[depth - 1].left == current) {
+            path[depth - 1].left = child;
+        } else {
+            path[depth - 1].right = child;
+        }
+        size--;
+        modCount++;
+        retrace(path, depth);
+        return true;
     }
 
-    //remove an element
-    public boolean remove(E data){
-    	Node x = helperRemove(root, data);
-        if (x != null) {
-            size--;
-            return true;
+    // checks whether the element is in the tree
+    public boolean contains(E data) {
+        Node current = root;
+        while (current != null) {
+            int cmp = data.compareTo(current.data);
+            if (cmp == 0) {
+                return true;
+            }
+            current = cmp < 0 ? current.left : current.right;
         }
         return false;
     }
 
-    private Node helperRemove(Node current, E data){
+    // height of the tree, 0 when empty
+    public int height() {
+        return height(root);
+    }
 
-        if (current == null) {
-            return null;
+    // path buffer deep enough for the current tree (add and remove record at most height() nodes)
+    private Node[] path() {
+        int needed = height(root) + 1;
+        if (path == null || path.length < needed) {
+            path = newNodes(Math.min(MAX_HEIGHT, Math.max(8, needed * 2)));
         }
+        return path;
+    }
 
-        if (data.compareTo(current.data) < 0) {
-        	// go left till we find node
-            current.left = helperRemove(current.left, data);
-        } else if (data.compareTo(current.data) > 0) {
-        	//go right till we find the node
-            current.right = helperRemove(current.right, data);
-        } else {
-            // Node to be deleted found
-            if (current.left == null) {
-                return current.right;
-            } else if (current.right == null) {
-                return current.left;
-            }
-
-            // Node with two children: get the inorder successor (smallest in the right subtree)
-            current.data = findMin(current.right);
+    // Node is an inner class of a generic type, so its arrays are created reflectively
+    @SuppressWarnings("unchecked")
+    private Node[] newNodes(int length) {
+        return (Node[]) Array.newInstance(Node.class, length);
+    }
 
-            // Delete the inorder successor
-            current.right = helperRemove(current.right, current.data);
+    // walks back up the recorded path fixing heights and rotating where the
+    // AVL balance is broken; once a subtree keeps its old height only the
+    // subtree counts of the remaining ancestors are fixed
+    private void retrace(Node[] path, int depth) {
+        for (int i = depth - 1; i >= 0; i--) {
+            Node node = path[i];
+            path[i] = null;
+            int oldHeight = node.height;
+            Node balanced = rebalance(node);
+            if (i == 0) {
+                root = balanced;
+            } else if (path[i - 1].left == node) {
+                path[i - 1].left = balanced;
+            } else {
+                path[i - 1].right = balanced;
+            }
+            if (balanced.height == oldHeight) {
+                for (int j = i - 1; j >= 0; j--) {
+                    path[j].count = count(path[j].left) + count(path[j].right) + 1;
+                    path[j] = null;
+                }
+                return;
+            }
         }
+    }
 
-        return current;
+    private void updateHeight(Node n) {
+        n.height = Math.max(height(n.left), height(n.right)) + 1;
+        n.count = count(n.left) + count(n.right) + 1;
     }
 
-    private E findMin(Node root) {
-        E min = root.data;
-        while (root.left != null) {
-            min = root.left.data;
-            root = root.left;
+    // restores the AVL property at n and returns the new root of that subtree
+    private Node rebalance(Node n) {
+        updateHeight(n);
+        int balance = height(n.left) - height(n.right);
+        if (balance > 1) {
+            if (height(n.left.left) < height(n.left.right)) {
+                n.left = rotateLeft(n.left);
+            }
+            return rotateRight(n);
+        }
+        if (balance < -1) {
+            if (height(n.right.right) < height(n.right.left)) {
+                n.right = rotateRight(n.right);
+            }
+            return rotateLeft(n);
         }
-        return min;
+        return n;
     }
 
     private Node rotateRight(Node y) {
+        ROTATIONS.increment();
         Node x = y.left;
         Node T2 = x.right;
 
         x.right = y;
         y.left = T2;
 
-        y.height = Math.max(height(y.left), height(y.right)) + 1;
-        x.height = Math.max(height(x.left), height(x.right)) + 1;
+        updateHeight(y);
+        updateHeight(x);
 
         return x;
     }
 
     private Node rotateLeft(Node x) {
+        ROTATIONS.increment();
         Node y = x.right;
         Node T2 = y.left;
 
         y.left = x;
         x.right = T2;
 
-        x.height = Math.max(height(x.left), height(x.right)) + 1;
-        y.height = Math.max(height(y.left), height(y.right)) + 1;
+        updateHeight(x);
+        updateHeight(y);
 
         return y;
     }
 
+    /**
+     * Element at the given position in sorted order.
+     *
+     * @param rank position, 0 for the smallest element
+     * @throws IndexOutOfBoundsException if rank is not in [0, size)
+     */
+    public E get(int rank) {
+        if (rank < 0 || rank >= size) {
+            throw new IndexOutOfBoundsException("rank " + rank + ", size " + size);
+        }
+        Node current = root;
+        while (true) {
+            int left = count(current.left);
+            if (rank < left) {
+                current = current.left;
+            } else if (rank > left) {
+                rank -= left + 1;
+                current = current.right;
+            } else {
+                return current.data;
+            }
+        }
+    }
+
+    // number of elements smaller than data (its position, if present)
+    public int rank(E data) {
+        int rank = 0;
+        Node current = root;
+        while (current != null) {
+            int cmp = data.compareTo(current.data);
+            if (cmp <= 0) {
+                if (cmp == 0) {
+                    return rank + count(current.left);
+                }
+                current = current.left;
+            } else {
+                rank += count(current.left) + 1;
+                current = current.right;
+            }
+        }
+        return rank;
+    }
+
+    // smallest element >= data, or null
+    public E ceiling(E data) {
+        E best = null;
+        Node current = root;
+        while (current != null) {
+            int cmp = data.compareTo(current.data);
+            if (cmp == 0) {
+                return current.data;
+            }
+            if (cmp < 0) {
+                best = current.data;
+                current = current.left;
+            } else {
+                current = current.right;
+            }
+        }
+        return best;
+    }
+
+    // largest element <= data, or null
+    public E floor(E data) {
+        E best = null;
+        Node current = root;
+        while (current != null) {
+            int cmp = data.compareTo(current.data);
+            if (cmp == 0) {
+                return current.data;
+            }
+            if (cmp > 0) {
+                best = current.data;
+                current = current.right;
+            } else {
+                current = current.left;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Elements in [from, to) as a read-only list in sorted order. Finding the
+     * bounds costs O(log n); get(i) is O(log n) and iterating k elements
+     * O(log n + k). The view is fixed by position, so it must not be used
+     * after the tree is modified.
+     *
+     * @param from lowest element included
+     * @param to   first element excluded
+     */
+    public List<E> subSet(E from, E to) {
+        int lo = rank(from);
+        return new RangeView(lo, Math.max(lo, rank(to)));
+    }
+
+    // elements smaller than to, as a subSet view
+    public List<E> headSet(E to) {
+        return new RangeView(0, rank(to));
+    }
+
+    // elements from from onwards, as a subSet view
+    public List<E> tailSet(E from) {
+        return new RangeView(rank(from), size);
+    }
+
+    // elements at positions [fromRank, toRank) as a subSet view, e.g. one page
+    public List<E> range(int fromRank, int toRank) {
+        if (fromRank < 0 || toRank > size || fromRank > toRank) {
+            throw new IndexOutOfBoundsException("range [" + fromRank + ", " + toRank + "), size " + size);
+        }
+        return new RangeView(fromRank, toRank);
+    }
+
+    // positional view over the ranks [lo, hi)
+    private class RangeView extends AbstractList<E> {
+        private final int lo;
+        private final int hi;
+
+        RangeView(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        public E get(int i) {
+            if (i < 0 || i >= hi - lo) {
+                throw new IndexOutOfBoundsException("index " + i + ", size " + (hi - lo));
+            }
+            return MyTreeSet.this.get(lo + i);
+        }
+
+        @Override
+        public int size() {
+            return hi - lo;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            Iterator<E> it = new TreeSetIterator(lo);
+            return new Iterator<E>() {
+                private int left = hi - lo;
+
+                public boolean hasNext() {
+                    return left > 0;
+                }
+
+                public E next() {
+                    if (left == 0) {
+                        throw new NoSuchElementException();
+                    }
+                    left--;
+                    return it.next();
+                }
+            };
+        }
+    }
+
     // custom iterator 
     public Iterator<E> iterator() {
         return new TreeSetIterator();
     }
 
+    // iterates in sorted order starting at the smallest element >= from
+    public Iterator<E> iterator(E from) {
+        return new TreeSetIterator(rank(from));
+    }
+
+    /**
+     * A SIZED, SUBSIZED, SORTED, DISTINCT, ORDERED and NONNULL spliterator,
+     * so parallel streams over the tree split evenly. Each split halves the
+     * remaining rank range; the subtree counts make starting at a rank an
+     * O(log n) descent. Fails fast if the tree changes during traversal.
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        return new TreeSetSpliterator(0, size);
+    }
+
+    // the elements with ranks lo (inclusive) to hi (exclusive); the iterator is created on first use
+    private class TreeSetSpliterator implements Spliterator<E> {
+        private int lo;
+        private final int hi;
+        private TreeSetIterator it;
+        private final int expectedModCount = modCount;
+
+        TreeSetSpliterator(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        public boolean tryAdvance(java.util.function.Consumer<? super E> action) {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (lo >= hi) {
+                return false;
+            }
+            if (it == null) {
+                it = new TreeSetIterator(lo);
+            }
+            lo++;
+            action.accept(it.next());
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(java.util.function.Consumer<? super E> action) {
+            while (tryAdvance(action)) {
+                // advances
+            }
+        }
+
+        // hands out the first half of what is left and keeps the second
+        @Override
+        public Spliterator<E> trySplit() {
+            int mid = (lo + hi) >>> 1;
+            if (mid <= lo) {
+                return null;
+            }
+            Spliterator<E> prefix = new TreeSetSpliterator(lo, mid);
+            lo = mid;
+            it = null;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return hi - lo;
+        }
+
+        @Override
+        public int characteristics() {
+            return SIZED | SUBSIZED | SORTED | DISTINCT | ORDERED | NONNULL;
+        }
+
+        // null: sorted in natural order
+        @Override
+        public Comparator<? super E> getComparator() {
+            return null;
+        }
+    }
+
+    // fails fast with ConcurrentModificationException if the tree changes under it;
+    // readers that must not block writers should use a PersistentTreeSet snapshot
+    // The stack is a plain array as deep as the tree, so next() takes no lock and allocates nothing.
     private class TreeSetIterator implements Iterator<E> {
-        private Stack<Node> stack = new Stack<>();
+        private final Node[] stack;
+        private int depth;
+        private final int expectedModCount = modCount;
 
         public TreeSetIterator() {
+            stack = newStack();
             pushLeft(root);
         }
 
+        // starts at the element of the given rank: pushes only the ancestors
+        // still to be visited, so the start costs O(log n)
+        TreeSetIterator(int rank) {
+            stack = newStack();
+            Node current = root;
+            while (current != null) {
+                int left = count(current.left);
+                if (rank <= left) {
+                    stack[depth++] = current;
+                    if (rank == left) {
+                        break;
+                    }
+                    current = current.left;
+                } else {
+                    rank -= left + 1;
+                    current = current.right;
+                }
+            }
+        }
+
+        // a path holds at most height() nodes
+        private Node[] newStack() {
+            return newNodes(height(root));
+        }
+
         private void pushLeft(Node node) {
             while (node != null) {
-                stack.push(node);
+                stack[depth++] = node;
                 node = node.left;
             }
         }
 
-        
         public boolean hasNext() {
-            return !stack.isEmpty();
+            return depth > 0;
         }
 
         public E next() {
-            Node node = stack.pop();
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (depth == 0) {
+                throw new NoSuchElementException();
+            }
+            Node node = stack[--depth];
             pushLeft(node.right);
             return node.data;
         }
@@ -200,6 +629,17 @@ public class MyTreeSet<E extends Comparable<E>> implements Iterable<E> ,SetADT<E
         tree.add(12);
         tree.add(17);
 
+        Iterator<Integer> stale = tree.iterator();
+        stale.next();
+        tree.add(20);
+        try {
+            stale.next();
+            assert false : "iterator missed a concurrent change";
+        } catch (ConcurrentModificationException e) {
+            // expected
+        }
+        tree.remove(20);
+
         System.out.println("Initial in-order:");
         for (int val : tree) {
             System.out.print(val + " ");
@@ -244,5 +684,137 @@ public class MyTreeSet<E extends Comparable<E>> implements Iterable<E> ,SetADT<E
         for (int val : tree) {
             System.out.print(val + " ");
         }
+        System.out.println();
+
+        // Sorted, reverse-sorted and random insert orders all stay balanced
+        int n = 1_000_000;
+        int[] sorted = new int[n];
+        int[] reversed = new int[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = i;
+            reversed[i] = n - 1 - i;
+        }
+        int[] shuffled = sorted.clone();
+        Random random = new Random(42);
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = tmp;
+        }
+        timeInserts("sorted", sorted);
+        timeInserts("reverse-sorted", reversed);
+        timeInserts("random", shuffled);
+
+        // Bulk load from sorted input, and the sorting fallback for unordered input
+        long start = System.nanoTime();
+        MyTreeSet<Integer> bulk = MyTreeSet.fromSorted(Arrays.stream(sorted).boxed().iterator(), n);
+        System.out.println("\nfromSorted: " + n + " keys in " + (System.nanoTime() - start) / 1_000_000
+                + " ms (height " + bulk.height() + ")");
+        assert bulk.size() == n && bulk.height() == 20;
+        int expected = 0;
+        for (int val : bulk) {
+            assert val == expected++;
+        }
+        MyTreeSet<Integer> unordered = MyTreeSet.fromSorted(Arrays.asList(5, 3, 9, 3, 1).iterator(), 5);
+        assert unordered.size() == 4 && unordered.contains(9) && unordered.height() == 3;
+        assert unordered.add(4) && unordered.remove(5) && unordered.size() == 4;
+
+        // Order statistics and ranges stay exact through rotations and removals
+        MyTreeSet<Integer> ranked = new MyTreeSet<>();
+        for (int key : shuffled) {
+            ranked.add(key * 2);        // even keys 0 .. 2n-2
+        }
+        for (int key = 0; key < 2 * n; key += 8) {
+            ranked.remove(key);         // drop every fourth element
+        }
+        List<Integer> expectedKeys = new ArrayList<>();
+        for (int key = 0; key < 2 * n; key += 2) {
+            if (key % 8 != 0) {
+                expectedKeys.add(key);
+            }
+        }
+        assert ranked.size() == expectedKeys.size();
+        for (int i = 0; i < expectedKeys.size(); i += 997) {
+            assert ranked.get(i).equals(expectedKeys.get(i));
+            assert ranked.rank(expectedKeys.get(i)) == i;
+        }
+        assert ranked.ceiling(7) == 10 && ranked.floor(7) == 6 && ranked.ceiling(8) == 10 && ranked.floor(8) == 6;
+        assert ranked.ceiling(2 * n) == null && ranked.floor(-1) == null;
+        assert ranked.subSet(100, 120).equals(Arrays.asList(100, 102, 106, 108, 110, 114, 116, 118));
+        assert ranked.headSet(7).equals(Arrays.asList(2, 4, 6)) && ranked.tailSet(2 * n - 5).equals(Arrays.asList(2 * n - 4, 2 * n - 2));
+        Iterator<Integer> fromKey = ranked.iterator(11);
+        assert fromKey.next() == 12 && fromKey.next() == 14 && fromKey.next() == 18;
+
+        // paging deep into the set costs O(log n + page) against a full copy
+        int page = 500;
+        int pageSize = 50;
+        start = System.nanoTime();
+        List<Integer> direct = new ArrayList<>(ranked.range(page * pageSize, (page + 1) * pageSize));
+        long rankedNs = System.nanoTime() - start;
+        start = System.nanoTime();
+        List<Integer> copied = new ArrayList<>();
+        for (int val : ranked) {
+            copied.add(val);
+        }
+        List<Integer> copiedPage = copied.subList(page * pageSize, (page + 1) * pageSize);
+        long copyNs = System.nanoTime() - start;
+        assert direct.equals(copiedPage);
+        System.out.println("\npage " + page + " of " + ranked.size() + " keys: " + rankedNs / 1000 + " us by rank, "
+                + copyNs / 1000 + " us by copying");
+
+        // the spliterator covers every element once, in order, however it is split
+        Spliterator<Integer> whole = ranked.spliterator();
+        assert whole.hasCharacteristics(Spliterator.SIZED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.ORDERED);
+        assert whole.getExactSizeIfKnown() == ranked.size() && whole.getComparator() == null;
+        Spliterator<Integer> prefix = whole.trySplit();
+        assert prefix.estimateSize() + whole.estimateSize() == ranked.size();
+        int[] previous = {-1};
+        prefix.tryAdvance(key -> previous[0] = key);
+        prefix.forEachRemaining(key -> {
+            assert key > previous[0];
+            previous[0] = key;
+        });
+        whole.forEachRemaining(key -> {
+            assert key > previous[0];
+            previous[0] = key;
+        });
+        List<Integer> streamed = java.util.stream.StreamSupport.stream(ranked.spliterator(), true).toList();
+        assert streamed.equals(copied);
+        long sequentialSum = 0;
+        start = System.nanoTime();
+        for (int key : ranked) {
+            sequentialSum += key;
+        }
+        long iterateNs = System.nanoTime() - start;
+        start = System.nanoTime();
+        long parallelSum = java.util.stream.StreamSupport.stream(ranked.spliterator(), true).mapToLong(Integer::longValue).sum();
+        long parallelNs = System.nanoTime() - start;
+        assert parallelSum == sequentialSum;
+        System.out.println("\nsum of " + ranked.size() + " keys: " + iterateNs / 1_000_000 + " ms iterating, "
+                + parallelNs / 1_000_000 + " ms on a parallel stream (" + Runtime.getRuntime().availableProcessors() + " cores)");
+    }
+
+    // inserts, probes and removes every key, reporting height and elapsed time
+    private static void timeInserts(String order, int[] keys) {
+        MyTreeSet<Integer> tree = new MyTreeSet<>();
+        long start = System.nanoTime();
+        for (int key : keys) {
+            tree.add(key);
+        }
+        long added = System.nanoTime();
+        for (int key : keys) {
+            assert tree.contains(key);
+        }
+        int height = tree.height();
+        // AVL bound: height < 1.4405 * log2(n + 2)
+        assert height < 1.4405 * (Math.log(keys.length + 2) / Math.log(2));
+        for (int key : keys) {
+            tree.remove(key);
+        }
+        long removed = System.nanoTime();
+        assert tree.isEmpty() && tree.height() == 0;
+        System.out.println("\n" + order + ": " + keys.length + " adds in " + (added - start) / 1_000_000
+                + " ms (height " + height + "), removes in " + (removed - added) / 1_000_000 + " ms");
     }
 }
\ No newline at end of file
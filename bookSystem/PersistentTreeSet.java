@@ -0,0 +1,577 @@
+package bookSystem;
+
+import java.util.*;
+
+/**
+ * Sorted set stored as a persistent AVL tree: nodes are never modified, so
+ * add and remove copy only the O(log n) nodes on the path to the change and
+ * publish the new root. snapshot() hands out the current root in O(1) as an
+ * immutable Snapshot that can be traversed, ranked and paged with no lock
+ * and no copying, while writers carry on; nodes a snapshot no longer shares
+ * with the live tree are garbage collected with it.
+ *
+ * Writers must be serialized by the caller (add and remove are not safe
+ * to run concurrently with each other), but
+ * snapshot(), and every method of a Snapshot, can be used from any thread
+ * at any time.
+ */
+public class PersistentTreeSet<E extends Comparable<E>> implements Iterable<E>, SetADT<E> {
+
+    // immutable node; count is the size of the subtree, for ranks
+    private static final class Node<E> {
+        final E data;
+        final Node<E> left;
+        final Node<E> right;
+        final int height;
+        final int count;
+
+        Node(E data, Node<E> left, Node<E> right) {
+            this.data = data;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.count = count(left) + count(right) + 1;
+        }
+    }
+
+    private volatile Node<E> root;
+
+    public PersistentTreeSet() {
+    }
+
+    private PersistentTreeSet(Node<E> root) {
+        this.root = root;
+    }
+
+    /**
+     * Builds a height-balanced tree from the given elements in a single linear pass.
+     *
+     * @param elements strictly increasing elements
+     * @param count    how many elements the iterator yields
+     * @throws IllegalArgumentException if an element is not greater than the one before it
+     */
+    public static <E extends Comparable<E>> PersistentTreeSet<E> fromSorted(Iterator<E> elements, int count) {
+        Iterator<E> checked = new Iterator<E>() {
+            private E previous;
+
+            @Override
+            public boolean hasNext() {
+                return elements.hasNext();
+            }
+
+            @Override
+            public E next() {
+                E element = elements.next();
+                if (previous != null && previous.compareTo(element) >= 0) {
+                    throw new IllegalArgumentException("Elements out of order: " + previous + " before " + element);
+                }
+                previous = element;
+                return element;
+            }
+        };
+        return new PersistentTreeSet<>(build(checked, count));
+    }
+
+    // the next n elements as a balanced subtree
+    private static <E> Node<E> build(Iterator<E> elements, int n) {
+        if (n == 0) {
+            return null;
+        }
+        Node<E> left = build(elements, n / 2);
+        E data = elements.next();
+        return new Node<>(data, left, build(elements, n - n / 2 - 1));
+    }
+
+    // The current contents, frozen; O(1)
+    public Snapshot<E> snapshot() {
+        return new Snapshot<>(root);
+    }
+
+    @Override
+    public boolean add(E data) {
+        Node<E> before = root;
+        Node<E> after = insert(before, data);
+        if (after == before) {
+            return false;
+        }
+        root = after;
+        return true;
+    }
+
+    @Override
+    public boolean remove(E data) {
+        Node<E> before = root;
+        Node<E> after = delete(before, data);
+        if (after == before) {
+            return false;
+        }
+        root = after;
+        return true;
+    }
+
+    @Override
+    public boolean contains(E data) {
+        return snapshot().contains(data);
+    }
+
+    @Override
+    public int size() {
+        return count(root);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    // height of the tree, 0 when empty
+    public int height() {
+        return height(root);
+    }
+
+    // Iterates over the contents as they are when this is called
+    @Override
+    public Iterator<E> iterator() {
+        return snapshot().iterator();
+    }
+
+    // returns the subtree with data added, or node itself if data was already there
+    private static <E extends Comparable<E>> Node<E> insert(Node<E> node, E data) {
+        if (node == null) {
+            return new Node<>(data, null, null);
+        }
+        int cmp = data.compareTo(node.data);
+        if (cmp < 0) {
+            Node<E> left = insert(node.left, data);
+            return left == node.left ? node : balance(node.data, left, node.right);
+        } else if (cmp > 0) {
+            Node<E> right = insert(node.right, data);
+            return right == node.right ? node : balance(node.data, node.left, right);
+        }
+        return node;
+    }
+
+    // returns the subtree without data, or node itself if data was not there
+    private static <E extends Comparable<E>> Node<E> delete(Node<E> node, E data) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = data.compareTo(node.data);
+        if (cmp < 0) {
+            Node<E> left = delete(node.left, data);
+            return left == node.left ? node : balance(node.data, left, node.right);
+        } else if (cmp > 0) {
+            Node<E> right = delete(node.right, data);
+            return right == node.right ? node : balance(node.data, node.left, right);
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        // replace with the successor
+        Node<E> successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(successor.data, node.left, deleteMin(node.right));
+    }
+
+    private static <E> Node<E> deleteMin(Node<E> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node.data, deleteMin(node.left), node.right);
+    }
+
+    // a new node for data over left and right, rotated if they differ in height by two
+    private static <E> Node<E> balance(E data, Node<E> left, Node<E> right) {
+        int diff = height(left) - height(right);
+        if (diff > 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node<>(left.data, left.left, new Node<>(data, left.right, right));
+            }
+            Node<E> pivot = left.right;
+            return new Node<>(pivot.data, new Node<>(left.data, left.left, pivot.left), new Node<>(data, pivot.right, right));
+        }
+        if (diff < -1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node<>(right.data, new Node<>(data, left, right.left), right.right);
+            }
+            Node<E> pivot = right.left;
+            return new Node<>(pivot.data, new Node<>(data, left, pivot.left), new Node<>(right.data, pivot.right, right.right));
+        }
+        return new Node<>(data, left, right);
+    }
+
+    private static int height(Node<?> n) {
+        return n == null ? 0 : n.height;
+    }
+
+    private static int count(Node<?> n) {
+        return n == null ? 0 : n.count;
+    }
+
+    /**
+     * One frozen version of a PersistentTreeSet. It never changes, so it
+     * can be read by any number of threads without locking, and its
+     * iterators never fail.
+     */
+    public static final class Snapshot<E extends Comparable<E>> implements Iterable<E> {
+        private final Node<E> root;
+
+        private Snapshot(Node<E> root) {
+            this.root = root;
+        }
+
+        public int size() {
+            return count(root);
+        }
+
+        public boolean isEmpty() {
+            return root == null;
+        }
+
+        public boolean contains(E data) {
+            Node<E> n = root;
+            while (n != null) {
+                int cmp = data.compareTo(n.data);
+                if (cmp == 0) {
+                    return true;
+                }
+                n = cmp < 0 ? n.left : n.right;
+            }
+            return false;
+        }
+
+        // The element with the given rank (0 is the smallest), in O(log n)
+        public E get(int rank) {
+            if (rank < 0 || rank >= size()) {
+                throw new IndexOutOfBoundsException("rank " + rank + ", size " + size());
+            }
+            Node<E> n = root;
+            while (true) {
+                int leftCount = count(n.left);
+                if (rank < leftCount) {
+                    n = n.left;
+                } else if (rank == leftCount) {
+                    return n.data;
+                } else {
+                    rank -= leftCount + 1;
+                    n = n.right;
+                }
+            }
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new SnapshotIterator<>(root, null);
+        }
+
+        // Iterates from the smallest element not less than from
+        public Iterator<E> iterator(E from) {
+            return new SnapshotIterator<>(root, from);
+        }
+
+        // The elements with ranks fromRank (inclusive) to toRank (exclusive), as a list view
+        public List<E> range(int fromRank, int toRank) {
+            if (fromRank < 0 || toRank > size() || fromRank > toRank) {
+                throw new IndexOutOfBoundsException("range " + fromRank + ".." + toRank + ", size " + size());
+            }
+            return new AbstractList<E>() {
+                @Override
+                public E get(int index) {
+                    Objects.checkIndex(index, toRank - fromRank);
+                    return Snapshot.this.get(fromRank + index);
+                }
+
+                @Override
+                public int size() {
+                    return toRank - fromRank;
+                }
+
+                @Override
+                public Iterator<E> iterator() {
+                    Iterator<E> it = new SnapshotIterator<>(root, fromRank);
+                    return new Iterator<E>() {
+                        int left = toRank - fromRank;
+
+                        @Override
+                        public boolean hasNext() {
+                            return left > 0;
+                        }
+
+                        @Override
+                        public E next() {
+                            if (left == 0) {
+                                throw new NoSuchElementException();
+                            }
+                            left--;
+                            return it.next();
+                        }
+                    };
+                }
+            };
+        }
+
+        // The whole snapshot as an unmodifiable list; get is O(log n), iteration O(1) per element
+        public List<E> asList() {
+            return range(0, size());
+        }
+
+        // SIZED, SUBSIZED, SORTED, DISTINCT, ORDERED, NONNULL and IMMUTABLE; splits halve the rank range
+        @Override
+        public Spliterator<E> spliterator() {
+            return new SnapshotSpliterator<>(root, 0, size());
+        }
+
+        // A sequential stream of the snapshot; call parallel() to spread it over the common pool
+        public java.util.stream.Stream<E> stream() {
+            return java.util.stream.StreamSupport.stream(spliterator(), false);
+        }
+    }
+
+    // the elements of a frozen tree with ranks lo (inclusive) to hi (exclusive)
+    private static final class SnapshotSpliterator<E extends Comparable<E>> implements Spliterator<E> {
+        private final Node<E> root;
+        private int lo;
+        private final int hi;
+        private SnapshotIterator<E> it;     // created on first use, at rank lo
+
+        SnapshotSpliterator(Node<E> root, int lo, int hi) {
+            this.root = root;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        public boolean tryAdvance(java.util.function.Consumer<? super E> action) {
+            if (lo >= hi) {
+                return false;
+            }
+            if (it == null) {
+                it = new SnapshotIterator<>(root, lo);
+            }
+            lo++;
+            action.accept(it.next());
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(java.util.function.Consumer<? super E> action) {
+            if (lo >= hi) {
+                return;
+            }
+            if (it == null) {
+                it = new SnapshotIterator<>(root, lo);
+            }
+            for (; lo < hi; lo++) {
+                action.accept(it.next());
+            }
+        }
+
+        @Override
+        public Spliterator<E> trySplit() {
+            int mid = (lo + hi) >>> 1;
+            if (mid <= lo) {
+                return null;
+            }
+            Spliterator<E> prefix = new SnapshotSpliterator<>(root, lo, mid);
+            lo = mid;
+            it = null;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return hi - lo;
+        }
+
+        @Override
+        public int characteristics() {
+            return SIZED | SUBSIZED | SORTED | DISTINCT | ORDERED | NONNULL | IMMUTABLE;
+        }
+
+        @Override
+        public Comparator<? super E> getComparator() {
+            return null;
+        }
+    }
+
+    // in-order iterator over a frozen tree, with its path kept in an array
+    private static final class SnapshotIterator<E extends Comparable<E>> implements Iterator<E> {
+        private final Object[] stack;
+        private int depth;
+
+        // starts at the first element not less than from, or at the smallest when from is null
+        SnapshotIterator(Node<E> root, E from) {
+            stack = new Object[height(root)];
+            for (Node<E> n = root; n != null; ) {
+                if (from == null || from.compareTo(n.data) <= 0) {
+                    stack[depth++] = n;
+                    n = n.left;
+                } else {
+                    n = n.right;
+                }
+            }
+        }
+
+        // starts at the element with the given rank
+        SnapshotIterator(Node<E> root, int rank) {
+            stack = new Object[height(root)];
+            for (Node<E> n = root; n != null; ) {
+                int leftCount = count(n.left);
+                if (rank <= leftCount) {
+                    stack[depth++] = n;
+                    if (rank == leftCount) {
+                        break;
+                    }
+                    n = n.left;
+                } else {
+                    rank -= leftCount + 1;
+                    n = n.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth > 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (depth == 0) {
+                throw new NoSuchElementException();
+            }
+            Node<E> n = (Node<E>) stack[--depth];
+            for (Node<E> m = n.right; m != null; m = m.left) {
+                stack[depth++] = m;
+            }
+            return n.data;
+        }
+    }
+
+    // Checks the tree against TreeSet, then measures readers during write churn:
+    // java bookSystem.PersistentTreeSet [readers] [seconds]
+    public static void main(String[] args) throws Exception {
+        PersistentTreeSet<Integer> tree = new PersistentTreeSet<>();
+        TreeSet<Integer> reference = new TreeSet<>();
+        Random random = new Random(5);
+        Snapshot<Integer> early = null;
+        List<Integer> earlyContents = null;
+        for (int i = 0; i < 100_000; i++) {
+            int key = random.nextInt(20_000);
+            if (random.nextInt(3) == 0) {
+                assert tree.remove(key) == reference.remove(key);
+            } else {
+                assert tree.add(key) == reference.add(key);
+            }
+            if (i == 50_000) {
+                early = tree.snapshot();
+                earlyContents = new ArrayList<>(reference);
+            }
+        }
+        assert tree.size() == reference.size();
+        assert new ArrayList<>(tree.snapshot().asList()).equals(new ArrayList<>(reference));
+        assert tree.height() <= 1.45 * (Math.log(tree.size() + 2) / Math.log(2));
+        // the old snapshot did not see any of the later writes
+        assert new ArrayList<>(early.asList()).equals(earlyContents);
+        Snapshot<Integer> now = tree.snapshot();
+        int middle = now.get(now.size() / 2);
+        assert now.iterator(middle).next() == middle;
+        assert now.iterator(middle + 1).next().equals(reference.ceiling(middle + 1));
+        assert now.range(10, 20).equals(new ArrayList<>(reference).subList(10, 20));
+        Iterator<Integer> fromRank = now.range(now.size() - 3, now.size()).iterator();
+        assert fromRank.next().equals(now.get(now.size() - 3));
+        PersistentTreeSet<Integer> built = fromSorted(reference.iterator(), reference.size());
+        assert new ArrayList<>(built.snapshot().asList()).equals(new ArrayList<>(reference));
+        assert built.remove(middle) && !built.snapshot().contains(middle) && now.contains(middle);
+        for (List<Integer> unordered : List.of(List.of(1, 3, 2), List.of(1, 2, 2))) {
+            try {
+                fromSorted(unordered.iterator(), unordered.size());
+                assert false : "accepted " + unordered;
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        System.out.println("PersistentTreeSet tests passed.");
+
+        int readers = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        readerThroughput("persistent snapshot", readers, seconds, true);
+        readerThroughput("locked MyTreeSet copy", readers, seconds, false);
+    }
+
+    // readers sum a full traversal in a loop while one writer adds and removes as fast as it
+    // can; the writer's latency shows how long readers hold it up
+    private static void readerThroughput(String label, int readers, int seconds, boolean persistent) throws Exception {
+        int size = 200_000;
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            keys.add(i * 2);
+        }
+        PersistentTreeSet<Integer> shared = fromSorted(keys.iterator(), size);
+        MyTreeSet<Integer> locked = MyTreeSet.fromSorted(keys.iterator(), size);
+        Object lock = new Object();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        long[] traversals = new long[readers];
+        LatencyHistogram writes = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int r = 0; r < readers; r++) {
+            int id = r;
+            threads.add(new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    long sum = 0;
+                    if (persistent) {
+                        for (int key : shared.snapshot()) {
+                            sum += key;
+                        }
+                    } else {
+                        // the consistent read the mutable tree allows: copy under the writers' lock
+                        List<Integer> copy;
+                        synchronized (lock) {
+                            copy = new ArrayList<>(locked.size());
+                            for (int key : locked) {
+                                copy.add(key);
+                            }
+                        }
+                        for (int key : copy) {
+                            sum += key;
+                        }
+                    }
+                    assert sum > 0;
+                    traversals[id]++;
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            Random random = new Random(9);
+            while (System.nanoTime() < end) {
+                int key = random.nextInt(size) * 2 + 1;
+                long start = System.nanoTime();
+                synchronized (lock) {
+                    if (persistent) {
+                        shared.add(key);
+                        shared.remove(key);
+                    } else {
+                        locked.add(key);
+                        locked.remove(key);
+                    }
+                }
+                writes.record(System.nanoTime() - start);
+            }
+        }));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long total = Arrays.stream(traversals).sum();
+        System.out.printf("%s: %d readers, %.1f traversals/s of %,d elements; writer %,d ops/s, p99 %d us, max %d us%n",
+                label, readers, total / (double) seconds, size, 2 * writes.count() / seconds,
+                writes.percentile(0.99) / 1000, writes.max() / 1000);
+    }
+}
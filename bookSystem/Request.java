@@ -3,6 +3,7 @@
 package bookSystem;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a book request in the Book Exchange System.
@@ -10,18 +11,38 @@ import java.util.*;
  * and the urgency level of the request.
  */
 public class Request implements Comparable<Request> {
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+
+    // Identifies the request, e.g. for cancellation. Ids are handed out in creation order and
+    // RequestStore keeps them increasing across restarts, so they also order equally urgent requests.
+    private final long id;
     private String title;      // The title of the requested book
     private String requester;  // The person who made the request
-    private int urgency; 
-    private long timestamp;      // The urgency level (lower means less urgent)
+    private int urgency;         // The urgency level (lower means more urgent)
+    int heapIndex = -1;          // Slot in the RequestHeap holding this request, -1 if none
 
 
     //Constructs a new Request with the specified title, requester, and urgency.
     public Request(String title, String requester, int urgency) {
+        this(title, requester, urgency, NEXT_ID.getAndIncrement());
+    }
+
+    // Recreates a request read back from disk with its original id
+    Request(String title, String requester, int urgency, long id) {
+        this.id = id;
         this.title = title;
         this.requester = requester;
         this.urgency = urgency;
-        this.timestamp = System.nanoTime();
+    }
+
+    // Makes sure ids handed out from now on are above maxId, e.g. the largest id read back from disk
+    static void reserveIds(long maxId) {
+        NEXT_ID.accumulateAndGet(maxId + 1, Math::max);
+    }
+
+    // Returns the id of the request.
+    public long getId() {
+        return id;
     }
 
     // Returns the title of the requested book.
@@ -45,7 +66,7 @@ public class Request implements Comparable<Request> {
         if (this.urgency != other.urgency) {
             return Integer.compare(this.urgency, other.urgency); // lower = higher priority
         } else {
-            return Long.compare(this.timestamp, other.timestamp); // earlier request = higher priority
+            return Long.compare(this.id, other.id); // earlier request = higher priority
         }
     }
 
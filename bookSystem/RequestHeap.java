@@ -0,0 +1,124 @@
+package bookSystem;
+
+import java.util.*;
+
+/**
+ * Binary min-heap of requests that tracks each request's slot, so an
+ * arbitrary request can be removed in O(log n) instead of the O(n) scan
+ * PriorityQueue.remove(Object) does. A request can be in one heap at a time.
+ */
+class RequestHeap {
+    private Request[] heap;
+    private int size;
+
+    RequestHeap() {
+        heap = new Request[8];
+    }
+
+    // a heap of the given requests, built bottom-up in O(n) rather than by n adds
+    RequestHeap(List<Request> requests) {
+        heap = new Request[Math.max(8, requests.size())];
+        size = requests.size();
+        for (int i = 0; i < size; i++) {
+            place(requests.get(i), i);
+        }
+        for (int i = (size >>> 1) - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    // most urgent request, or null
+    Request peek() {
+        return size == 0 ? null : heap[0];
+    }
+
+    void add(Request request) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        place(request, size++);
+        siftUp(size - 1);
+    }
+
+    // removes and returns the most urgent request, or null
+    Request poll() {
+        if (size == 0) {
+            return null;
+        }
+        Request top = heap[0];
+        removeAt(0);
+        return top;
+    }
+
+    // removes a request that is in this heap
+    boolean remove(Request request) {
+        int i = request.heapIndex;
+        if (i < 0 || i >= size || heap[i] != request) {
+            return false;
+        }
+        removeAt(i);
+        return true;
+    }
+
+    // the waiting requests, in heap (not priority) order
+    List<Request> toList() {
+        return new ArrayList<>(Arrays.asList(heap).subList(0, size));
+    }
+
+    private void removeAt(int i) {
+        Request removed = heap[i];
+        removed.heapIndex = -1;
+        Request last = heap[--size];
+        heap[size] = null;
+        if (i < size) {
+            place(last, i);
+            siftDown(i);
+            if (heap[i] == last) {
+                siftUp(i);
+            }
+        }
+    }
+
+    private void siftUp(int i) {
+        Request request = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent].compareTo(request) <= 0) {
+                break;
+            }
+            place(heap[parent], i);
+            i = parent;
+        }
+        place(request, i);
+    }
+
+    private void siftDown(int i) {
+        Request request = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heap[child + 1].compareTo(heap[child]) < 0) {
+                child++;
+            }
+            if (request.compareTo(heap[child]) <= 0) {
+                break;
+            }
+            place(heap[child], i);
+            i = child;
+        }
+        place(request, i);
+    }
+
+    private void place(Request request, int i) {
+        heap[i] = request;
+        request.heapIndex = i;
+    }
+}
@@ -1,65 +1,555 @@
 package bookSystem;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.PriorityQueue;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
 
 
 /**
  * RequestManager manages book requests made by users, prioritizing them by urgency.
+ *
+ * Pending requests are kept in one indexed heap per normalized title, plus
+ * an index of the titles that have both waiting requests and (as far as the
+ * attached BookManager last told us) available copies. processRequests only
+ * visits those titles, so its cost follows the number of possible matches
+ * rather than the size of the backlog; requests that cannot be matched keep
+ * waiting for a later run. With setOriginalLog, a run instead logs every
+ * waiting request and empties the queue, as the original loop did.
+ *
+ * After startStreaming, each request is matched as soon as it arrives, and
+ * each listing added to the BookManager is matched right away against the
+ * waiting requests for its title.
+ *
+ * processRequestsParallel does the same matching as processRequests on a
+ * ForkJoinPool: requests for different titles never compete for a copy, so
+ * the matchable titles are split into ranges that are matched independently,
+ * each in priority order, and the sorted results are merged into the same
+ * log processRequests would return.
+ *
+ * A RequestManager created with a file name keeps its waiting requests in a
+ * RequestStore: every request that starts waiting, is cancelled or is
+ * matched is journaled, and on startup the queue is recovered from the
+ * checkpoint and journal, each title's heap being built bottom-up in O(n).
  */
 public class RequestManager {
 
-    // List to store all user-submitted requests
-    private List<Request> requests;
+    // Waiting requests per normalized title, and by id for cancellation
+    private final Map<String, RequestHeap> pending = new HashMap<>();
+    private final LongHashMap<Request> byId = new LongHashMap<>();
+    // Titles with waiting requests that probably have copies available
+    private final Set<String> matchable = new HashSet<>();
 
+    private static final Metrics.Counter ADDED = Metrics.counter("requests.added");
+    private static final Metrics.Counter MATCHED = Metrics.counter("requests.matched");
+    private static final Metrics.Counter CANCELLED = Metrics.counter("requests.cancelled");
+    private static final LatencyHistogram PROCESS = Metrics.histogram("requests.process");
+    // Titles below which a MatchTask matches its range itself instead of splitting it
+    private static final int PARTITION_TITLES = 512;
+
+    private final RequestStore store;       // null for a queue kept in memory only
+    private BookManager supply;             // BookManager whose listings feed the matchable index
+    private Consumer<Book> supplyListener;  // registered with supply
+    private MatchListener matchListener;    // non-null in streaming mode
+    private boolean originalLog;            // runs log and drop every waiting request
+
+    // A queue kept in memory only
     public RequestManager() {
-        this.requests = new ArrayList<>();
+        this((RequestStore) null);
+    }
+
+    // A queue persisted to fileName.snap and fileName.log, recovered from them if they exist
+    public RequestManager(String fileName) {
+        this(new RequestStore(fileName));
+    }
+
+    private RequestManager(RequestStore store) {
+        this.store = store;
+        // queue depth of the most recently created RequestManager
+        Metrics.gauge("requests.waiting", this::waiting);
+        if (store != null) {
+            try {
+                restore(store.recover());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private synchronized long waiting() {
+        return byId.size();
     }
 
     /**
-     * Adds a new request to the system.
+     * Adds a new request to the system. In streaming mode it is matched
+     * immediately if a copy is available, and otherwise waits for one.
      * @param request The request to add.
      */
     public void addRequest(Request request) {
-        requests.add(request);
+        ADDED.increment();
+        Book book;
+        MatchListener listener;
+        synchronized (this) {
+            listener = matchListener;
+            book = listener != null ? supply.getBook(request.getTitle()) : null;
+            if (book == null) {
+                enqueue(request);
+                return;
+            }
+        }
+        MATCHED.increment();
+        listener.matched(request, book);
+    }
+
+    // addRequest on BookManager's async pool
+    public CompletableFuture<Void> addRequestAsync(Request request) {
+        return BookManager.async(() -> {
+            addRequest(request);
+            return null;
+        });
+    }
+
+    /**
+     * Cancels a waiting request in O(log n).
+     * @param id the id of the request
+     * @return true if the request was still waiting
+     */
+    public synchronized boolean cancelRequest(long id) {
+        Request request = byId.remove(id);
+        if (request == null) {
+            return false;
+        }
+        CANCELLED.increment();
+        if (store != null) {
+            store.logCancel(request);
+            store.maybeCompact(this::waitingRequests);
+        }
+        String key = BookManager.titleKey(request.getTitle());
+        RequestHeap heap = pending.get(key);
+        heap.remove(request);
+        if (heap.isEmpty()) {
+            pending.remove(key);
+            matchable.remove(key);
+        }
+        return true;
+    }
+
+    //Returns the list of all waiting requests, most urgent first.
+    public synchronized List<Request> getRequests() {
+        List<Request> all = waitingRequests();
+        Collections.sort(all);
+        return all;
+    }
+
+    // Writes a checkpoint of the waiting requests; a no-op for a queue kept in memory only
+    public synchronized void checkpoint() {
+        if (store != null) {
+            try {
+                store.checkpoint(waitingRequests());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Syncs and closes the journal, if any
+    public synchronized void close() {
+        if (store != null) {
+            store.close();
+        }
     }
 
-    //Returns the list of all requests.
-    public List<Request> getRequests() {
-        return new ArrayList<>(requests); // defensive copy
+    /**
+     * Switches to event-driven matching. Requests already waiting are matched
+     * first, in priority order.
+     * @param bookManager the BookManager whose listings are matched
+     * @param listener receives every match
+     */
+    public void startStreaming(BookManager bookManager, MatchListener listener) {
+        List<Request> requests = new ArrayList<>();
+        List<Book> books = new ArrayList<>();
+        synchronized (this) {
+            attach(bookManager);
+            matchListener = listener;
+            matchAll(requests, books);
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            listener.matched(requests.get(i), books.get(i));
+        }
+    }
+
+    /**
+     * Makes processRequests produce the original loop's log: one line per
+     * waiting request in priority order, either its match or "No available
+     * book for", after which the queue is empty. Such a run costs O(backlog).
+     * Off by default: the log then has a line per match followed by one line
+     * counting the requests that keep waiting.
+     * @param originalLog whether runs log and drop every waiting request
+     */
+    public synchronized void setOriginalLog(boolean originalLog) {
+        this.originalLog = originalLog;
     }
 
     /**
      * Processes all pending requests based on urgency and book availability.
+     * Only titles with both demand and supply are visited: their copies are
+     * taken from the BookManager in one transaction and handed out in
+     * urgency/arrival order. Requests without a copy keep waiting, unless
+     * setOriginalLog is on.
      * @param bookManager the BookManager to interact with available books
      * @return a list of log messages describing the processing outcome
      */
     public List<String> processRequests(BookManager bookManager) {
-        PriorityQueue<Request> queue = new PriorityQueue<>(requests);
-        List<String> log = new ArrayList<>();
-
-        while (!queue.isEmpty()) {
-            Request request = queue.poll();
-            Book book = bookManager.getBook(request.getTitle());
-            if (book != null) {
-                bookManager.removeBook(book);
-                log.add("✅ Matched: " + request + " <-> " + book);
-            } else {
-                log.add("❌ No available book for: " + request.getTitle());
+        return processRequests(bookManager, line -> { });
+    }
+
+    /**
+     * Like processRequests, but also hands each log message to progress as
+     * soon as it is known, before the whole list is returned.
+     * @param bookManager the BookManager to interact with available books
+     * @param progress receives the log messages in order, on the calling thread
+     * @return a list of log messages describing the processing outcome
+     */
+    public List<String> processRequests(BookManager bookManager, Consumer<String> progress) {
+        long start = Metrics.start();
+        List<Request> requests = new ArrayList<>();
+        List<Book> books = new ArrayList<>();
+        List<Request> unmatched = new ArrayList<>();
+        int waiting;
+        synchronized (this) {
+            attach(bookManager);
+            matchAll(requests, books);
+            if (originalLog) {
+                unmatched = drainWaiting();
+            }
+            waiting = byId.size();
+        }
+        PROCESS.recordSince(start);
+        // the messages are built outside the lock, so other callers are not held up by the listener
+        return log(requests, books, unmatched, waiting, progress);
+    }
+
+    /**
+     * Like processRequests, but matches the titles in parallel on the common
+     * ForkJoinPool. Returns the same log processRequests would.
+     * @param bookManager the BookManager to interact with available books
+     * @return a list of log messages describing the processing outcome
+     */
+    public List<String> processRequestsParallel(BookManager bookManager) {
+        return processRequestsParallel(bookManager, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Like processRequests, but matches the titles in parallel on pool. The
+     * matchable titles are split in halves down to ranges of a few hundred
+     * titles; each range takes its copies from the BookManager and polls its
+     * titles' heaps, and the ranges' matches are merged in priority order.
+     * The BookManager's log is synced once, after every range is done.
+     * @param bookManager the BookManager to interact with available books
+     * @param pool the pool the ranges are matched on
+     * @return a list of log messages describing the processing outcome
+     */
+    public List<String> processRequestsParallel(BookManager bookManager, ForkJoinPool pool) {
+        long start = Metrics.start();
+        List<Request> requests = new ArrayList<>();
+        List<Book> books = new ArrayList<>();
+        List<Request> unmatched = new ArrayList<>();
+        int waiting;
+        synchronized (this) {
+            attach(bookManager);
+            String[] keys = matchable.toArray(new String[0]);
+            matchable.clear();
+            // the tasks only read pending and update the heaps of their own titles; the shared
+            // maps are updated here, once they are done
+            List<Match> matches = pool.invoke(new MatchTask(keys, 0, keys.length));
+            for (Match match : matches) {
+                byId.remove(match.request.getId());
+                journalMatch(match.request);
+                requests.add(match.request);
+                books.add(match.book);
+            }
+            for (String key : keys) {
+                if (pending.get(key).isEmpty()) {
+                    pending.remove(key);
+                }
             }
+            MATCHED.add(matches.size());
+            if (!matches.isEmpty()) {
+                supply.syncStore();
+                syncJournal();
+            }
+            if (originalLog) {
+                unmatched = drainWaiting();
+            }
+            waiting = byId.size();
         }
+        PROCESS.recordSince(start);
+        return log(requests, books, unmatched, waiting, line -> { });
+    }
 
-        requests.clear(); // clear after processing
+    /**
+     * The processRequests log: the matches in the parallel lists, which are in
+     * priority order, merged with the dropped unmatched requests, then a count
+     * of the requests still waiting, handing each line to progress.
+     */
+    private static List<String> log(List<Request> requests, List<Book> books, List<Request> unmatched,
+                                    int waiting, Consumer<String> progress) {
+        Collections.sort(unmatched);
+        List<String> log = new ArrayList<>(requests.size() + unmatched.size() + 1);
+        int i = 0;
+        int j = 0;
+        while (i < requests.size() || j < unmatched.size()) {
+            String line;
+            if (j == unmatched.size() || (i < requests.size() && requests.get(i).compareTo(unmatched.get(j)) < 0)) {
+                line = "✅ Matched: " + requests.get(i) + " <-> " + books.get(i++);
+            } else {
+                line = "❌ No available book for: " + unmatched.get(j++).getTitle();
+            }
+            log.add(line);
+            progress.accept(line);
+        }
+        if (waiting > 0) {
+            String line = "⏳ Still waiting for a copy: " + waiting + " request(s)";
+            log.add(line);
+            progress.accept(line);
+        }
         return log;
     }
 
+    // A request and the copy it was given
+    private static final class Match {
+        final Request request;
+        final Book book;
+
+        Match(Request request, Book book) {
+            this.request = request;
+            this.book = book;
+        }
+    }
+
+    // Matches the titles keys[lo, hi), returning the matches in request order
+    private final class MatchTask extends RecursiveTask<List<Match>> {
+        private static final long serialVersionUID = 1L;
+        private final String[] keys;
+        private final int lo;
+        private final int hi;
+
+        MatchTask(String[] keys, int lo, int hi) {
+            this.keys = keys;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected List<Match> compute() {
+            if (hi - lo <= PARTITION_TITLES) {
+                return matchRange();
+            }
+            int mid = (lo + hi) >>> 1;
+            MatchTask left = new MatchTask(keys, lo, mid);
+            left.fork();
+            List<Match> right = new MatchTask(keys, mid, hi).compute();
+            return merge(left.join(), right);
+        }
+
+        private List<Match> matchRange() {
+            Map<String, Integer> wanted = new HashMap<>();
+            for (int i = lo; i < hi; i++) {
+                wanted.put(keys[i], pending.get(keys[i]).size());
+            }
+            List<Match> matches = new ArrayList<>();
+            for (Map.Entry<String, List<Book>> entry : supply.takeBooksUnsynced(wanted).entrySet()) {
+                RequestHeap heap = pending.get(entry.getKey());
+                for (Book book : entry.getValue()) {
+                    matches.add(new Match(heap.poll(), book));
+                }
+            }
+            matches.sort((a, b) -> a.request.compareTo(b.request));
+            return matches;
+        }
+
+        private List<Match> merge(List<Match> a, List<Match> b) {
+            List<Match> merged = new ArrayList<>(a.size() + b.size());
+            int i = 0;
+            int j = 0;
+            while (i < a.size() && j < b.size()) {
+                merged.add(a.get(i).request.compareTo(b.get(j).request) <= 0 ? a.get(i++) : b.get(j++));
+            }
+            merged.addAll(a.subList(i, a.size()));
+            merged.addAll(b.subList(j, b.size()));
+            return merged;
+        }
+    }
+
+    /**
+     * processRequests on BookManager's async pool.
+     * @param progress receives the log messages as they are produced, on a pool thread
+     */
+    public CompletableFuture<List<String>> processRequestsAsync(BookManager bookManager, Consumer<String> progress) {
+        return BookManager.async(() -> processRequests(bookManager, progress));
+    }
+
+    // Matches every matchable title, filling the parallel lists in request priority order
+    private void matchAll(List<Request> requests, List<Book> books) {
+        Map<String, Integer> wanted = new HashMap<>();
+        for (String key : matchable) {
+            wanted.put(key, pending.get(key).size());
+        }
+        matchable.clear();  // afterwards each of these titles is out of either requests or copies
+        Map<String, List<Book>> taken = supply.takeBooks(wanted);
+
+        List<Request> matched = new ArrayList<>();
+        Map<Request, Book> copyFor = new HashMap<>();
+        for (Map.Entry<String, List<Book>> entry : taken.entrySet()) {
+            RequestHeap heap = pending.get(entry.getKey());
+            for (Book book : entry.getValue()) {
+                Request request = heap.poll();
+                byId.remove(request.getId());
+                journalMatch(request);
+                matched.add(request);
+                copyFor.put(request, book);
+            }
+            if (heap.isEmpty()) {
+                pending.remove(entry.getKey());
+            }
+        }
+        if (!matched.isEmpty()) {
+            syncJournal();
+        }
+        Collections.sort(matched);
+        MATCHED.add(matched.size());
+        for (Request request : matched) {
+            requests.add(request);
+            books.add(copyFor.get(request));
+        }
+    }
+
+    private void enqueue(Request request) {
+        String key = BookManager.titleKey(request.getTitle());
+        pending.computeIfAbsent(key, k -> new RequestHeap()).add(request);
+        byId.put(request.getId(), request);
+        if (supply != null && supply.availableCount(key) > 0) {
+            matchable.add(key);
+        }
+        if (store != null) {
+            store.logAdd(request);
+            store.maybeCompact(this::waitingRequests);
+        }
+    }
+
+    // Rebuilds the queue from recovered requests, heapifying each title's requests at once
+    private void restore(List<Request> requests) {
+        Map<String, List<Request>> byTitle = new HashMap<>();
+        for (Request request : requests) {
+            byId.put(request.getId(), request);
+            byTitle.computeIfAbsent(BookManager.titleKey(request.getTitle()), k -> new ArrayList<>()).add(request);
+        }
+        for (Map.Entry<String, List<Request>> entry : byTitle.entrySet()) {
+            pending.put(entry.getKey(), new RequestHeap(entry.getValue()));
+        }
+    }
+
+    // Journals a match, which is group-committed unless the caller syncs the journal
+    private void journalMatch(Request request) {
+        if (store != null) {
+            store.logMatch(request);
+            store.maybeCompact(this::waitingRequests);
+        }
+    }
+
+    // Forces a batch of journaled matches to disk, as takeBooks does for the copies they took
+    private void syncJournal() {
+        if (store != null) {
+            try {
+                store.sync();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Empties the queue once an original-log run has matched what it could, and journals
+    // that; returns the requests that were left. Caller holds the lock
+    private List<Request> drainWaiting() {
+        List<Request> unmatched = waitingRequests();
+        pending.clear();
+        byId.clear();
+        matchable.clear();
+        if (store != null && !unmatched.isEmpty()) {
+            store.logClear();
+            syncJournal();
+        }
+        return unmatched;
+    }
+
+    // caller holds the lock
+    private List<Request> waitingRequests() {
+        List<Request> all = new ArrayList<>(byId.size());
+        byId.forEachValue(all::add);
+        return all;
+    }
+
+    // Starts following the listings of bookManager and rebuilds the matchable index for it
+    private void attach(BookManager bookManager) {
+        if (supply == bookManager) {
+            return;
+        }
+        if (supply != null) {
+            supply.removeListingListener(supplyListener);
+        }
+        supply = bookManager;
+        supplyListener = book -> listingAdded(bookManager, book);
+        bookManager.addListingListener(supplyListener);
+        matchable.clear();
+        for (String key : pending.keySet()) {
+            if (bookManager.availableCount(key) > 0) {
+                matchable.add(key);
+            }
+        }
+    }
+
+    // A listing was published: mark its title matchable, or in streaming mode hand it
+    // to the most urgent waiting request for the title right away
+    private void listingAdded(BookManager bookManager, Book book) {
+        Request request;
+        MatchListener listener;
+        synchronized (this) {
+            String key = BookManager.titleKey(book.getTitle());
+            RequestHeap heap = pending.get(key);
+            if (bookManager != supply || heap == null) {
+                return;
+            }
+            listener = matchListener;
+            if (listener == null) {
+                matchable.add(key);
+                return;
+            }
+            // by id: an equal copy listed by someone else must stay available
+            if (!bookManager.removeBookById(book.getListingId())) {
+                return;
+            }
+            request = heap.poll();
+            byId.remove(request.getId());
+            journalMatch(request);
+            if (heap.isEmpty()) {
+                pending.remove(key);
+                matchable.remove(key);
+            }
+        }
+        MATCHED.increment();
+        listener.matched(request, book);
+    }
+
     // Displays current requests in the console.
     public void displayRequests() {
-        if (requests.isEmpty()) {
+        List<Request> all = getRequests();
+        if (all.isEmpty()) {
             System.out.println("No requests available.");
         } else {
-            for (Request request : requests) {
+            for (Request request : all) {
                 System.out.println(request);
             }
         }
@@ -88,6 +578,220 @@ public class RequestManager {
 
         System.out.println("\nRequests after processing:");
         requestManager.displayRequests();
+
+        // Batch matching against the previous one-request-at-a-time loop on a large queue
+        try {
+            int count = 20_000;
+            BookManager sequential = new BookManager(File.createTempFile("sequential", ".txt").getPath());
+            BookManager batched = new BookManager(File.createTempFile("batched", ".txt").getPath());
+            RequestManager queue = new RequestManager();
+            Random random = new Random(7);
+            for (int i = 0; i < count; i++) {
+                String title = "Title " + random.nextInt(count / 4);
+                sequential.addBook(new Book(title, "CS" + i, 20, "Seller"));
+                batched.addBook(new Book(title, "CS" + i, 20, "Seller"));
+                queue.addRequest(new Request("title " + random.nextInt(count / 4), "Student " + i, 1 + random.nextInt(10)));
+            }
+
+            queue.setOriginalLog(true);
+            long start = System.nanoTime();
+            PriorityQueue<Request> polled = new PriorityQueue<>(queue.getRequests());
+            List<String> expected = new ArrayList<>();
+            int unmatched = 0;
+            while (!polled.isEmpty()) {
+                Request request = polled.poll();
+                Book book = sequential.getBook(request.getTitle());
+                if (book != null) {
+                    expected.add("✅ Matched: " + request + " <-> " + book);
+                } else {
+                    expected.add("❌ No available book for: " + request.getTitle());
+                    unmatched++;
+                }
+            }
+            long sequentialMs = (System.nanoTime() - start) / 1_000_000;
+
+            start = System.nanoTime();
+            List<String> actual = queue.processRequests(batched);
+            long batchMs = (System.nanoTime() - start) / 1_000_000;
+
+            assert actual.equals(expected);
+            assert batched.getAllBooks().equals(sequential.getAllBooks());
+            assert unmatched > 0 && queue.getRequests().isEmpty();
+            System.out.println("\n" + count + " requests: " + sequentialMs + " ms one at a time, "
+                    + batchMs + " ms batched");
+
+            // Cancellation by id on a large backlog, then runs over what is left of it: the default
+            // run visits the one matchable title, the original log lists every request
+            RequestManager backlog = new RequestManager();
+            List<Request> waitingList = new ArrayList<>();
+            for (int i = 0; i < 200_000; i++) {
+                Request request = new Request("Out of print " + (i % 50_000), "Student " + i, 1 + i % 10);
+                waitingList.add(request);
+                backlog.addRequest(request);
+            }
+            start = System.nanoTime();
+            for (int i = 0; i < waitingList.size(); i += 2) {
+                backlog.cancelRequest(waitingList.get(i).getId());
+            }
+            long cancelMs = (System.nanoTime() - start) / 1_000_000;
+            assert !backlog.cancelRequest(waitingList.get(0).getId());
+            assert backlog.getRequests().size() == 100_000;
+            BookManager small = new BookManager(File.createTempFile("backlog", ".txt").getPath());
+            small.addBook(new Book("Out of print 7", "CS7", 15, "Hal"));
+            start = System.nanoTime();
+            List<String> run = backlog.processRequests(small);
+            long runMs = (System.nanoTime() - start) / 1_000_000;
+            assert run.size() == 2 && run.get(0).contains("Out of print 7 (Urgency: 8) - Requested by: Student 7 ");
+            assert run.get(1).equals("⏳ Still waiting for a copy: 99999 request(s)");
+            assert backlog.getRequests().size() == 99_999 && small.getAllBooks().isEmpty();
+            small.addBook(new Book("Out of print 9", "CS9", 15, "Hal"));
+            backlog.setOriginalLog(true);
+            start = System.nanoTime();
+            run = backlog.processRequests(small);
+            long originalMs = (System.nanoTime() - start) / 1_000_000;
+            assert run.size() == 99_999 && run.stream().filter(line -> line.startsWith("✅")).count() == 1;
+            assert backlog.getRequests().isEmpty() && small.getAllBooks().isEmpty();
+            System.out.println("Backlog of 200000: 100000 cancels in " + cancelMs + " ms, a run over the rest in "
+                    + runMs + " ms, " + originalMs + " ms with the original log");
+
+            // Streaming mode: listings are matched against waiting requests on arrival
+            BookManager live = new BookManager(File.createTempFile("streaming", ".txt").getPath());
+            RequestManager streaming = new RequestManager();
+            List<String> matches = new ArrayList<>();
+            long[] latency = new long[1];
+            long[] published = new long[1];
+            streaming.addRequest(new Request("Compilers", "Early", 2));
+            streaming.startStreaming(live, (request, book) -> {
+                latency[0] += System.nanoTime() - published[0];
+                matches.add(request.getRequester() + " <-> " + book.getSeller());
+            });
+            streaming.addRequest(new Request("Compilers", "Urgent", 1));
+            streaming.addRequest(new Request("compilers", "Later", 5));
+            assert matches.isEmpty() && streaming.getRequests().size() == 3;
+            published[0] = System.nanoTime();
+            live.addBook(new Book("Compilers", "CS420", 40, "Dana"));
+            published[0] = System.nanoTime();
+            live.addBook(new Book("Compilers", "CS420", 35, "Eli"));
+            assert matches.equals(List.of("Urgent <-> Dana", "Early <-> Eli")) : matches;
+            assert live.getAllBooks().isEmpty() && streaming.getRequests().size() == 1;
+
+            // an incoming request takes an available copy immediately
+            live.addBook(new Book("Networks", "CS330", 30, "Finn"));
+            published[0] = System.nanoTime();
+            streaming.addRequest(new Request("Networks", "Gus", 4));
+            assert matches.get(2).equals("Gus <-> Finn") && live.getAllBooks().isEmpty();
+
+            int rounds = 10_000;
+            for (int i = 0; i < rounds; i++) {
+                streaming.addRequest(new Request("Title " + i, "Student " + i, 3));
+            }
+            latency[0] = 0;
+            for (int i = 0; i < rounds; i++) {
+                published[0] = System.nanoTime();
+                live.addBook(new Book("Title " + i, "CS" + i, 20, "Seller " + i));
+            }
+            assert matches.size() == 3 + rounds;
+            System.out.println("Streaming: mean listing-to-match latency "
+                    + latency[0] / rounds / 1000 + " us over " + rounds + " listings");
+
+            // Parallel matching gives the sequential log; 100k requests over 50k titles
+            BookDataGenerator generator = new BookDataGenerator(23, 50_000, 2_500);
+            File catalogue = File.createTempFile("parallel", ".txt");
+            catalogue.deleteOnExit();
+            generator.write(catalogue.toPath(), 100_000);
+            List<String> expectedLog = null;
+            for (int parallelism : new int[] {0, 1, 2, 4}) {
+                File copy = File.createTempFile("parallel" + parallelism, ".txt");
+                copy.deleteOnExit();
+                java.nio.file.Files.copy(catalogue.toPath(), copy.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+                BookManager stock = new BookManager(copy.getPath());
+                RequestManager demand = new RequestManager();
+                for (int i = 0; i < 100_000; i++) {
+                    demand.addRequest(generator.request(i));
+                }
+                demand.attach(stock);
+                start = System.nanoTime();
+                List<String> log;
+                if (parallelism == 0) {
+                    log = demand.processRequests(stock);
+                    expectedLog = log;
+                } else {
+                    ForkJoinPool pool = new ForkJoinPool(parallelism);
+                    log = demand.processRequestsParallel(stock, pool);
+                    pool.shutdown();
+                    assert log.equals(expectedLog);
+                }
+                long ms = (System.nanoTime() - start) / 1_000_000;
+                assert log.get(log.size() - 1).startsWith("⏳");
+                assert log.size() - 1 + demand.getRequests().size() == 100_000;
+                assert log.stream().filter(line -> line.startsWith("✅")).count() > 50_000;
+                System.out.println("100000 requests over 50000 titles, "
+                        + (parallelism == 0 ? "sequential" : "parallelism " + parallelism) + ": " + ms + " ms");
+                stock.close();
+            }
+
+            // Waiting requests survive a restart in the same order, and keep their ids
+            String journal = File.createTempFile("requests", ".txt").getPath();
+            for (String suffix : new String[] {"", ".snap", ".log", ".log.old"}) {
+                new File(journal + suffix).deleteOnExit();
+            }
+            RequestManager durable = new RequestManager(journal);
+            List<Request> added = new ArrayList<>();
+            for (int i = 0; i < 1_000_000; i++) {
+                Request request = generator.request(i);
+                added.add(request);
+                durable.addRequest(request);
+            }
+            for (int i = 0; i < added.size(); i += 10) {
+                durable.cancelRequest(added.get(i).getId());
+            }
+            List<Request> before = durable.getRequests();
+            durable.close();
+            added = null;
+            assert before.size() == 900_000;
+
+            start = System.nanoTime();
+            RequestManager restarted = new RequestManager(journal);
+            long recoverMs = (System.nanoTime() - start) / 1_000_000;
+            List<Request> after = restarted.getRequests();
+            assert after.size() == before.size();
+            long maxId = 0;
+            for (int i = 0; i < after.size(); i++) {
+                assert after.get(i).getId() == before.get(i).getId() && after.get(i).toString().equals(before.get(i).toString());
+                maxId = Math.max(maxId, after.get(i).getId());
+            }
+            assert new Request("Next", "Reader", 1).getId() > maxId;
+
+            // an original-log run empties the queue, and so does recovering after it
+            restarted.setOriginalLog(true);
+            BookManager few = new BookManager(File.createTempFile("few", ".txt").getPath());
+            for (int i = 0; i < 1000; i++) {
+                few.addBook(generator.book(i));
+            }
+            List<String> processed = restarted.processRequests(few);
+            assert processed.size() == before.size() && processed.stream().anyMatch(line -> line.startsWith("✅"));
+            restarted.close();
+            RequestManager drained = new RequestManager(journal);
+            assert drained.getRequests().isEmpty();
+            drained.close();
+
+            // heapify against one add per request, for one heap of all of them in random order
+            Collections.shuffle(after, new Random(1));
+            start = System.nanoTime();
+            RequestHeap heapified = new RequestHeap(after);
+            long heapifyMs = (System.nanoTime() - start) / 1_000_000;
+            start = System.nanoTime();
+            RequestHeap inserted = new RequestHeap();
+            for (Request request : after) {
+                inserted.add(request);
+            }
+            long insertMs = (System.nanoTime() - start) / 1_000_000;
+            assert heapified.size() == inserted.size();
+            System.out.println(before.size() + " waiting requests recovered in " + recoverMs + " ms; one heap of them: "
+                    + heapifyMs + " ms heapified, " + insertMs + " ms by adds");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 }
 
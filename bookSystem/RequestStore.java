@@ -0,0 +1,432 @@
+package bookSystem;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Persistence behind a RequestManager's queue of waiting requests, laid out
+ * like BookStore's: a binary checkpoint (requests.txt.snap) plus an
+ * append-only journal (requests.txt.log) of events since then, one per line:
+ *   A,id,urgency,title,requester    a request started waiting
+ *   C,id                            it was cancelled
+ *   M,id                            it was matched with a copy
+ *   X                               every waiting request was dropped, after
+ *                                   an original-log run logged the unmatched ones
+ * Commas, '%' and line breaks in titles and requesters are %-escaped
+ * (see LogFields).
+ * Records are fsynced in batches (group commit); callers that need a batch
+ * on disk before going on call sync().
+ *
+ * Once the journal holds more records than there are waiting requests, it
+ * is rolled over and a background thread writes a fresh checkpoint, after
+ * which the sealed journal is dropped. Request ids are never reused, so
+ * replaying a record the checkpoint already reflects changes nothing: A of
+ * a waiting id is a no-op, a later C or M removes it again, and an X is
+ * followed by the A record of every request that started waiting since. That makes
+ * any crash during compaction safe without BookStore's extra rename step.
+ *
+ * The checkpoint also keeps the largest id ever logged, and recovery
+ * reserves it, so request ids (which order equally urgent requests) keep
+ * increasing across restarts.
+ *
+ * Checkpoint layout (big-endian, DataOutput):
+ *   header   int magic "RQSN", int version, long last id, int count
+ *   records  count x { long id, int urgency, utf title, utf requester }
+ *   trailer  int CRC32C of everything before it
+ */
+public final class RequestStore implements Closeable {
+    private static final String ADD = "A";
+    private static final String CANCEL = "C";
+    private static final String MATCH = "M";
+    private static final String CLEAR = "X";
+
+    private static final int MAGIC = 0x5251534E; // "RQSN"
+    private static final int VERSION = 1;
+    private static final int SYNC_BATCH = 256;           // records per group commit
+    private static final long SYNC_INTERVAL_MS = 50;     // max delay before pending records are fsynced
+    private static final int DEFAULT_COMPACT_THRESHOLD = 8192;
+    private static final Metrics.Counter JOURNAL_BYTES = Metrics.counter("requests.journal.bytes");
+    private static final Metrics.Counter CHECKPOINTS = Metrics.counter("requests.checkpoints");
+    private static final LatencyHistogram SYNC = Metrics.histogram("requests.journal.sync");
+    private static final LatencyHistogram RECOVER = Metrics.histogram("requests.recover");
+
+    private final Path snapshotFile;
+    private final Path logFile;
+    private final Path oldLogFile;
+    private final Path tmpFile;
+    private final int compactThreshold;
+
+    private FileOutputStream logStream;
+    private Writer logWriter;
+    private int pending;      // records written but not yet fsynced
+    private int logRecords;   // records in the current journal
+    private int waiting;      // requests waiting as of the last record
+    private long lastId;      // largest id recovered or logged
+    private Future<?> compaction;
+    private Thread shutdownHook;  // flushes the log if the JVM exits before close()
+
+    private final ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "request-store");
+        t.setDaemon(true);
+        return t;
+    });
+    // compactions get their own thread: the sync timer above blocks on the store's monitor,
+    // which close() and checkpoint() hold while they wait for a compaction to finish
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "request-store-compact");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public RequestStore(String fileName) {
+        this(fileName, DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    public RequestStore(String fileName, int compactThreshold) {
+        this.snapshotFile = Paths.get(fileName + ".snap");
+        this.logFile = Paths.get(fileName + ".log");
+        this.oldLogFile = Paths.get(fileName + ".log.old");
+        this.tmpFile = Paths.get(fileName + ".tmp");
+        this.compactThreshold = compactThreshold;
+        background.scheduleWithFixedDelay(this::syncQuietly, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        shutdownHook = new Thread(this::close, "request-store-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Reads the checkpoint and replays the sealed and current journals on top
+     * of it. A record torn off by a crash at the end of the journal is dropped.
+     *
+     * @return the waiting requests, in no particular order
+     */
+    public synchronized List<Request> recover() throws IOException {
+        long start = Metrics.start();
+        Files.deleteIfExists(tmpFile);
+        LongHashMap<Request> live = readSnapshot();
+        logRecords = replay(oldLogFile, live) + replay(logFile, live);
+        Request.reserveIds(lastId);
+        waiting = live.size();
+        List<Request> requests = new ArrayList<>(live.size());
+        live.forEachValue(requests::add);
+        openLog();
+        RECOVER.recordSince(start);
+        return requests;
+    }
+
+    // Appends an A record
+    public synchronized void logAdd(Request request) {
+        lastId = Math.max(lastId, request.getId());
+        waiting++;
+        append(ADD + "," + request.getId() + "," + request.getUrgency() + ","
+                + LogFields.escape(request.getTitle()) + "," + LogFields.escape(request.getRequester()));
+    }
+
+    // Appends a C record
+    public synchronized void logCancel(Request request) {
+        waiting--;
+        append(CANCEL + "," + request.getId());
+    }
+
+    // Appends an M record
+    public synchronized void logMatch(Request request) {
+        waiting--;
+        append(MATCH + "," + request.getId());
+    }
+
+    // Appends an X record
+    public synchronized void logClear() {
+        waiting = 0;
+        append(CLEAR);
+    }
+
+    /**
+     * Starts a background checkpoint if the journal has grown past the
+     * threshold and past the number of waiting requests, and none is running yet.
+     *
+     * @param requests supplies the waiting requests; called on the caller's thread
+     */
+    public synchronized void maybeCompact(Supplier<List<Request>> requests) {
+        if (logRecords < Math.max(compactThreshold, waiting) || (compaction != null && !compaction.isDone())) {
+            return;
+        }
+        List<Request> snapshot = requests.get();
+        long id = lastId;
+        rollLog();
+        CHECKPOINTS.increment();
+        compaction = compactor.submit(() -> {
+            try {
+                installSnapshot(snapshot, id);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Writes a checkpoint right away and empties the journal.
+     *
+     * @param requests the waiting requests
+     */
+    public synchronized void checkpoint(List<Request> requests) throws IOException {
+        awaitCompaction();
+        rollLog();
+        CHECKPOINTS.increment();
+        installSnapshot(requests, lastId);
+    }
+
+    // Forces all buffered records to disk
+    public synchronized void sync() throws IOException {
+        if (logWriter != null && pending > 0) {
+            long start = Metrics.start();
+            logWriter.flush();
+            logStream.getChannel().force(false);
+            pending = 0;
+            SYNC.recordSince(start);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            awaitCompaction();
+            sync();
+            if (logWriter != null) {
+                logWriter.close();
+                logWriter = null;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        background.shutdown();
+        compactor.shutdown();
+        removeShutdownHook();
+    }
+
+    // A closed store needs no hook; keeping it would pin the store until exit
+    private void removeShutdownHook() {
+        if (shutdownHook == null) {
+            return;
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // already shutting down: this close() is running in the hook itself
+        }
+        shutdownHook = null;
+    }
+
+    private void append(String record) {
+        try {
+            logWriter.write(record);
+            logWriter.write('\n');
+            if (Metrics.ENABLED) {
+                JOURNAL_BYTES.add(record.length() + 1);  // ids and urgencies are ASCII; close enough for the rest
+            }
+            logRecords++;
+            if (++pending >= SYNC_BATCH) {
+                sync();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void openLog() throws IOException {
+        logStream = new FileOutputStream(logFile.toFile(), true);
+        logWriter = new BufferedWriter(new OutputStreamWriter(logStream, StandardCharsets.UTF_8));
+    }
+
+    // seals the current journal as the old one and starts an empty one
+    private void rollLog() {
+        try {
+            sync();
+            logWriter.close();
+            if (Files.exists(oldLogFile)) {
+                // left over from a failed checkpoint; fold it into the sealed journal
+                try (OutputStream out = new FileOutputStream(oldLogFile.toFile(), true)) {
+                    Files.copy(logFile, out);
+                }
+                Files.delete(logFile);
+            } else {
+                Files.move(logFile, oldLogFile, StandardCopyOption.ATOMIC_MOVE);
+            }
+            logRecords = 0;
+            openLog();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // writes the checkpoint to a temporary file, installs it and drops the sealed journal
+    private void installSnapshot(List<Request> requests, long id) throws IOException {
+        try (FileOutputStream file = new FileOutputStream(tmpFile.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), new CRC32C());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(id);
+            out.writeInt(requests.size());
+            for (Request request : requests) {
+                out.writeLong(request.getId());
+                out.writeInt(request.getUrgency());
+                out.writeUTF(request.getTitle());
+                out.writeUTF(request.getRequester());
+            }
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            file.getChannel().force(false);
+        }
+        Files.move(tmpFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(oldLogFile);
+    }
+
+    private void awaitCompaction() {
+        if (compaction != null) {
+            try {
+                compaction.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+            compaction = null;
+        }
+    }
+
+    private LongHashMap<Request> readSnapshot() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return new LongHashMap<>();
+        }
+        try (InputStream file = Files.newInputStream(snapshotFile)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(file, 1 << 16), new CRC32C());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a request checkpoint: " + snapshotFile);
+            }
+            lastId = in.readLong();
+            int count = in.readInt();
+            LongHashMap<Request> live = new LongHashMap<>(count);
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                int urgency = in.readInt();
+                String title = in.readUTF();
+                live.put(id, new Request(title, in.readUTF(), urgency, id));
+            }
+            int expected = (int) checked.getChecksum().getValue();
+            if (in.readInt() != expected) {
+                throw new IOException("Checksum mismatch in " + snapshotFile);
+            }
+            return live;
+        }
+    }
+
+    private int replay(Path file, LongHashMap<Request> live) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        LogFields.trimTornTail(file);
+        int count = 0;
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(",", -1);
+                if (CLEAR.equals(line)) {
+                    live.clear();
+                    count++;
+                    continue;
+                }
+                try {
+                    long id = Long.parseLong(parts[1]);
+                    if (ADD.equals(parts[0]) && parts.length == 5) {
+                        live.put(id, new Request(LogFields.unescape(parts[3]), LogFields.unescape(parts[4]), Integer.parseInt(parts[2]), id));
+                        lastId = Math.max(lastId, id);
+                    } else if ((CANCEL.equals(parts[0]) || MATCH.equals(parts[0])) && parts.length == 2) {
+                        live.remove(id);
+                    } else {
+                        continue;
+                    }
+                    count++;
+                } catch (RuntimeException e) {
+                    // a damaged record is skipped
+                }
+            }
+        }
+        return count;
+    }
+
+    // Tests journal replay, checkpoints, torn records and id continuity
+    public static void main(String[] args) throws Exception {
+        String file = Files.createTempDirectory("requeststore").resolve("requests.txt").toString();
+        Map<Long, Request> expected = new LinkedHashMap<>();
+
+        RequestStore store = new RequestStore(file, 100);
+        assert store.recover().isEmpty();
+        for (int i = 0; i < 1000; i++) {
+            Request request = new Request("Book, vol. " + i + " 100%", "Reader\n" + i, 1 + i % 10);
+            expected.put(request.getId(), request);
+            store.logAdd(request);
+            if (i % 3 == 0) {
+                expected.remove(request.getId());
+                if (i % 2 == 0) {
+                    store.logCancel(request);
+                } else {
+                    store.logMatch(request);
+                }
+            }
+            store.maybeCompact(() -> new ArrayList<>(expected.values()));
+        }
+        long lastId = new Request("Unlogged", "Nobody", 1).getId();
+        store.close();
+        assert Files.exists(Paths.get(file + ".snap"));
+
+        // a crash in the middle of a record leaves a torn tail
+        try (Writer torn = Files.newBufferedWriter(Paths.get(file + ".log"), StandardOpenOption.APPEND)) {
+            long first = expected.keySet().iterator().next();
+            torn.write("C," + first + "7");
+        }
+        RequestStore reopened = new RequestStore(file, 100);
+        List<Request> recovered = reopened.recover();
+        assert recovered.size() == expected.size() : recovered.size() + " != " + expected.size();
+        for (Request request : recovered) {
+            Request original = expected.get(request.getId());
+            assert original != null && original.toString().equals(request.toString()) : request;
+        }
+        assert new Request("After restart", "Reader", 1).getId() > lastId;
+
+        // the torn record is gone, so the next one lands on a line of its own
+        Request late = new Request("Late", "Reader", 2);
+        reopened.logAdd(late);
+        reopened.close();
+        RequestStore again = new RequestStore(file, 100);
+        assert again.recover().size() == expected.size() + 1;
+
+        // an X drops everything waiting before it; requests added after it survive
+        Request kept = new Request("Kept", "Reader", 3);
+        again.logClear();
+        again.logAdd(kept);
+        again.close();
+        again = new RequestStore(file, 100);
+        List<Request> afterClear = again.recover();
+        assert afterClear.size() == 1 && afterClear.get(0).getId() == kept.getId();
+        again.checkpoint(new ArrayList<>());
+        again.close();
+        assert Files.size(Paths.get(file + ".log")) == 0;
+        assert new RequestStore(file).recover().isEmpty();
+        System.out.println("Recovered " + recovered.size() + " requests from checkpoint + journal.");
+    }
+}
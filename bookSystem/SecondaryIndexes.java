@@ -0,0 +1,128 @@
+package bookSystem;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Secondary indexes over the available books: hash indexes on course code
+ * and seller, and an ordered index on price for range queries. BookManager
+ * updates them under the same title stripe as its primary structures.
+ *
+ * Listings are tracked by identity, since two copies of the same book are
+ * equal but both available. Updates take a write lock and queries a read
+ * lock, so a query never sees a book in one index but not another.
+ */
+class SecondaryIndexes {
+    private final Map<String, Set<Book>> byCourse = new HashMap<>();
+    private final Map<String, Set<Book>> bySeller = new HashMap<>();
+    private final NavigableMap<Double, Set<Book>> byPrice = new TreeMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    void add(Book book) {
+        lock.writeLock().lock();
+        try {
+            insert(byCourse, book.getCourseCode(), book);
+            insert(bySeller, book.getSeller(), book);
+            insert(byPrice, book.getPrice(), book);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // adds many books under one acquisition of the lock
+    void addAll(Collection<Book> books) {
+        lock.writeLock().lock();
+        try {
+            for (Book book : books) {
+                insert(byCourse, book.getCourseCode(), book);
+                insert(bySeller, book.getSeller(), book);
+                insert(byPrice, book.getPrice(), book);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // removes exactly these listings (by identity)
+    void removeAll(Collection<Book> books) {
+        lock.writeLock().lock();
+        try {
+            for (Book book : books) {
+                delete(byCourse, book.getCourseCode(), book);
+                delete(bySeller, book.getSeller(), book);
+                delete(byPrice, book.getPrice(), book);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Books satisfying every criterion of the query. The most selective index
+     * is scanned and its books are checked against the other criteria, which
+     * costs the same as intersecting with the larger indexes but needs no
+     * lookups in them.
+     *
+     * @param query the criteria
+     * @param all   supplies every book when the query sets no criterion
+     */
+    List<Book> find(BookQuery query, Supplier<List<Book>> all) {
+        if (query.getCourseCode() == null && query.getSeller() == null && !query.hasPriceRange()) {
+            return new ArrayList<>(all.get());
+        }
+        lock.readLock().lock();
+        try {
+            Collection<Set<Book>> smallest = null;
+            long smallestSize = Long.MAX_VALUE;
+            if (query.getCourseCode() != null) {
+                Set<Book> set = byCourse.getOrDefault(query.getCourseCode(), Collections.emptySet());
+                smallest = Collections.singletonList(set);
+                smallestSize = set.size();
+            }
+            if (query.getSeller() != null) {
+                Set<Book> set = bySeller.getOrDefault(query.getSeller(), Collections.emptySet());
+                if (set.size() < smallestSize) {
+                    smallest = Collections.singletonList(set);
+                    smallestSize = set.size();
+                }
+            }
+            if (query.hasPriceRange() && query.getMinPrice() <= query.getMaxPrice()) {
+                Collection<Set<Book>> range = byPrice.subMap(query.getMinPrice(), true, query.getMaxPrice(), true).values();
+                // only count as far as needed to know whether the range is the smallest
+                long size = 0;
+                for (Iterator<Set<Book>> it = range.iterator(); it.hasNext() && size < smallestSize; ) {
+                    size += it.next().size();
+                }
+                if (size < smallestSize) {
+                    smallest = range;
+                }
+            } else if (query.hasPriceRange()) {
+                return new ArrayList<>();
+            }
+
+            List<Book> result = new ArrayList<>();
+            for (Set<Book> set : smallest) {
+                for (Book book : set) {
+                    if (query.matches(book)) {
+                        result.add(book);
+                    }
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static <K> void insert(Map<K, Set<Book>> index, K key, Book book) {
+        index.computeIfAbsent(key, k -> Collections.newSetFromMap(new IdentityHashMap<>())).add(book);
+    }
+
+    private static <K> void delete(Map<K, Set<Book>> index, K key, Book book) {
+        Set<Book> set = index.get(key);
+        if (set != null && set.remove(book) && set.isEmpty()) {
+            index.remove(key);
+        }
+    }
+}
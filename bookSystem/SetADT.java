@@ -11,6 +11,9 @@ public interface SetADT<E> {
     // Removes the specified element from the set if it exists.
     public abstract boolean remove(E element); 
 
+    // Checks whether the specified element is in the set.
+    public abstract boolean contains(E element);
+
     // Returns the number of elements in the set.
     public abstract int size();           
 
@@ -0,0 +1,589 @@
+package bookSystem;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Title search over the catalogue: a compressed (radix) trie of normalized
+ * titles for prefix/autocomplete queries, and a trigram index for
+ * typo-tolerant matching. BookManager keeps it up to date as titles gain
+ * their first copy or lose their last one.
+ *
+ * Each title gets an int id. The trigram index maps a trigram to the ids of
+ * the titles containing it; removed ids are left in the posting lists and
+ * skipped, and the lists are rebuilt once dead ids outnumber live ones.
+ *
+ * fuzzy is exact while the posting lists it has to scan are short. On a
+ * large catalogue it scans a budget of the rarest lists only and scores the
+ * titles that hit most of them, so a title sharing few of its trigrams with
+ * the query can be missed there.
+ *
+ * Safe to use from several threads: queries share a read lock, updates take
+ * the write lock.
+ */
+public class TitleSearch {
+    private static final double MIN_SIMILARITY = 0.5;   // Dice coefficient over trigrams
+    private static final int SCAN_EXTRA = 2;             // posting lists fuzzy scans beyond the prefix filter's
+    private static final int BLOCK = 1 << 15;           // title ids counted per pass, so the counters stay in cache
+    private static final int SCAN_BUDGET = 16384;       // postings fuzzy scans before it turns approximate
+    private static final int RESCORED_PER_RESULT = 8;   // approximate fuzzy's shortlist, per title asked for
+    private static final TrieNode[] NO_CHILDREN = new TrieNode[0];
+
+    private final TrieNode root = new TrieNode("", null);
+    private final Map<Long, IntList> postings = new HashMap<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private String[] keys = new String[1024];       // id -> normalized title, null once removed
+    private String[] titles = new String[1024];     // id -> title as first listed
+    private int[] gramCounts = new int[1024];       // id -> number of distinct trigrams
+    private int nextId;
+    private int deadIds;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadLocal<int[]> scratch = ThreadLocal.withInitial(() -> new int[0]);
+
+    // node of the radix trie; label is the edge leading into the node
+    private static final class TrieNode {
+        String label;
+        TrieNode[] children = NO_CHILDREN;   // sorted by the first char of their labels
+        String title;                        // title ending at this node, or null
+
+        TrieNode(String label, String title) {
+            this.label = label;
+            this.title = title;
+        }
+
+        int find(char c) {
+            int lo = 0;
+            int hi = children.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                char m = children[mid].label.charAt(0);
+                if (m < c) {
+                    lo = mid + 1;
+                } else if (m > c) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(lo + 1);
+        }
+
+        void insertChild(TrieNode child) {
+            int at = -(find(child.label.charAt(0)) + 1);
+            TrieNode[] grown = new TrieNode[children.length + 1];
+            System.arraycopy(children, 0, grown, 0, at);
+            grown[at] = child;
+            System.arraycopy(children, at, grown, at + 1, children.length - at);
+            children = grown;
+        }
+
+        void removeChild(int at) {
+            TrieNode[] shrunk = new TrieNode[children.length - 1];
+            System.arraycopy(children, 0, shrunk, 0, at);
+            System.arraycopy(children, at + 1, shrunk, at, children.length - at - 1);
+            children = shrunk.length == 0 ? NO_CHILDREN : shrunk;
+        }
+    }
+
+    // growable int array used as a posting list; ids are appended in increasing order
+    private static final class IntList {
+        int[] items = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = value;
+        }
+
+        boolean contains(int value) {
+            return Arrays.binarySearch(items, 0, size, value) >= 0;
+        }
+    }
+
+    /**
+     * Makes a title searchable.
+     *
+     * @param title the title as listed
+     * @return false if the title was already indexed
+     */
+    public boolean add(String title) {
+        String key = BookManager.titleKey(title);
+        lock.writeLock().lock();
+        try {
+            if (ids.containsKey(key)) {
+                return false;
+            }
+            trieInsert(key, title);
+            int id = nextId++;
+            if (id == keys.length) {
+                keys = Arrays.copyOf(keys, id * 2);
+                titles = Arrays.copyOf(titles, id * 2);
+                gramCounts = Arrays.copyOf(gramCounts, id * 2);
+            }
+            keys[id] = key;
+            titles[id] = title;
+            ids.put(key, id);
+            index(id);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops returning a title.
+     *
+     * @param title the title, in any case
+     * @return false if the title was not indexed
+     */
+    public boolean remove(String title) {
+        String key = BookManager.titleKey(title);
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.remove(key);
+            if (id == null) {
+                return false;
+            }
+            trieRemove(key);
+            keys[id] = null;
+            titles[id] = null;
+            if (++deadIds > 1024 && deadIds > ids.size()) {
+                rebuildPostings();
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Number of indexed titles
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Titles starting with the given prefix, in alphabetical order (so an
+     * exact match comes first).
+     *
+     * @param prefix the prefix, in any case
+     * @param limit  maximum number of titles returned
+     */
+    public List<String> prefix(String prefix, int limit) {
+        String p = BookManager.titleKey(prefix);
+        List<String> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            TrieNode node = root;
+            int i = 0;
+            while (i < p.length()) {
+                int at = node.find(p.charAt(i));
+                if (at < 0) {
+                    return result;
+                }
+                node = node.children[at];
+                int n = Math.min(node.label.length(), p.length() - i);
+                if (!node.label.regionMatches(0, p, i, n)) {
+                    return result;
+                }
+                i += n;
+            }
+            collect(node, result, limit);
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Titles similar to the query even with typos, most similar first.
+     * Similarity is the Dice coefficient of the two titles' trigram sets.
+     * Approximate once the query's posting lists outgrow the scan budget.
+     *
+     * @param query the text to match, in any case
+     * @param limit maximum number of titles returned
+     */
+    public List<String> fuzzy(String query, int limit) {
+        Set<Long> q = trigrams(BookManager.titleKey(query));
+        int t = q.size();
+        // Dice >= MIN_SIMILARITY needs 2 * min(t, g) >= MIN_SIMILARITY * (t + g), which bounds
+        // a matching title's trigram count g to [minGrams, maxGrams]; such a title shares at
+        // least minOverlap trigrams with the query, so it must occur in one of the rarest
+        // size - minOverlap + 1 posting lists, and the longer lists are only probed for those
+        int minGrams = (int) Math.ceil(t * MIN_SIMILARITY / (2 - MIN_SIMILARITY));
+        int maxGrams = (int) Math.floor(t * (2 - MIN_SIMILARITY) / MIN_SIMILARITY);
+        int minOverlap = Math.max(1, (int) Math.ceil(MIN_SIMILARITY * (t + minGrams) / 2));
+        lock.readLock().lock();
+        try {
+            List<IntList> lists = new ArrayList<>();
+            for (long trigram : q) {
+                IntList list = postings.get(trigram);
+                if (list != null) {
+                    lists.add(list);
+                }
+            }
+            if (lists.size() < minOverlap) {
+                return new ArrayList<>();
+            }
+            lists.sort(Comparator.comparingInt(list -> list.size));
+            int scanned = lists.size() - minOverlap + 1;
+            long postingCount = 0;
+            for (int k = 0; k < scanned; k++) {
+                postingCount += lists.get(k).size;
+            }
+            int minHits;
+            IntList[] shortlist = null;     // approximate: candidates by their hits, scored after the scan
+            if (postingCount <= SCAN_BUDGET) {
+                // scanning up to SCAN_EXTRA more lists than the prefix filter needs means a
+                // title must hit at least minHits of them, which prunes most candidates on their
+                // count alone, before their trigram count or key is looked up; a list much longer
+                // than the ones before it costs more to scan than it saves
+                for (int extra = 0; extra < SCAN_EXTRA && scanned < lists.size()
+                        && lists.get(scanned).size <= 2 * lists.get(scanned - 1).size; extra++) {
+                    scanned++;
+                }
+                minHits = minOverlap - (lists.size() - scanned);
+            } else {
+                // too many postings for an exact answer: scan the rarest lists the budget covers and
+                // expect a match to hit its share of them; probing the rest of the lists is left to
+                // the candidates that hit the most
+                scanned = 1;
+                postingCount = lists.get(0).size;
+                while (scanned < lists.size() && postingCount + lists.get(scanned).size <= SCAN_BUDGET) {
+                    postingCount += lists.get(scanned++).size;
+                }
+                minHits = Math.max(1, (int) Math.ceil((double) minOverlap * scanned / lists.size()));
+                shortlist = new IntList[scanned + 1];
+            }
+
+            // the scanned lists are merged one block of ids at a time: the posting lists are
+            // sorted, so each pass resumes where the last one stopped, and the hit counters of
+            // a block fit in cache where one counter per title would miss on nearly every hit
+            int[] hits = scratch.get();
+            if (hits.length < BLOCK) {
+                hits = new int[BLOCK];
+                scratch.set(hits);
+            }
+            int[] next = new int[scanned];
+            IntList candidates = new IntList();
+            // bounded heap of the best matches, worst on top
+            PriorityQueue<double[]> best = new PriorityQueue<>(
+                    (a, b) -> a[0] != b[0] ? Double.compare(a[0], b[0]) : Double.compare(b[1], a[1]));
+            for (int base = 0; base < nextId; base += BLOCK) {
+                int end = base + BLOCK;
+                candidates.size = 0;
+                for (int k = 0; k < scanned; k++) {
+                    IntList list = lists.get(k);
+                    int j = next[k];
+                    while (j < list.size && list.items[j] < end) {
+                        int id = list.items[j++];
+                        if (hits[id - base]++ == 0) {
+                            candidates.add(id);
+                        }
+                    }
+                    next[k] = j;
+                }
+                for (int j = 0; j < candidates.size; j++) {
+                    int id = candidates.items[j];
+                    int overlap = hits[id - base];
+                    hits[id - base] = 0;
+                    if (overlap < minHits) {
+                        continue;
+                    }
+                    if (shortlist != null) {
+                        if (shortlist[overlap] == null) {
+                            shortlist[overlap] = new IntList();
+                        }
+                        shortlist[overlap].add(id);
+                        continue;
+                    }
+                    offer(best, limit, id, overlap, lists, scanned, t, minGrams, maxGrams);
+                }
+            }
+            if (shortlist != null) {
+                int rescored = RESCORED_PER_RESULT * limit;
+                for (int h = scanned; h >= minHits && rescored > 0; h--) {
+                    for (int j = 0; shortlist[h] != null && j < shortlist[h].size && rescored > 0; j++, rescored--) {
+                        offer(best, limit, shortlist[h].items[j], h, lists, scanned, t, minGrams, maxGrams);
+                    }
+                }
+            }
+            LinkedList<String> result = new LinkedList<>();
+            while (!best.isEmpty()) {
+                result.addFirst(titles[(int) best.poll()[1]]);
+            }
+            return new ArrayList<>(result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // adds title id, which hit overlap of the first scanned lists, to the bounded heap of the best
+    // matches if it is similar enough; the other lists are probed while they can still lift it there
+    private void offer(PriorityQueue<double[]> best, int limit, int id, int overlap, List<IntList> lists,
+                       int scanned, int t, int minGrams, int maxGrams) {
+        int grams = gramCounts[id];
+        if (grams < minGrams || grams > maxGrams || keys[id] == null) {
+            return;
+        }
+        int needed = (int) Math.ceil(MIN_SIMILARITY * (t + grams) / 2);
+        for (int l = scanned; l < lists.size() && overlap + lists.size() - l >= needed; l++) {
+            if (lists.get(l).contains(id)) {
+                overlap++;
+            }
+        }
+        if (overlap < needed) {
+            return;
+        }
+        best.add(new double[] {2.0 * overlap / (t + grams), id});
+        if (best.size() > limit) {
+            best.poll();
+        }
+    }
+
+    /**
+     * Prefix matches first, then typo-tolerant matches, without repeats.
+     *
+     * @param query the text to match, in any case
+     * @param limit maximum number of titles returned
+     */
+    public List<String> search(String query, int limit) {
+        List<String> result = prefix(query, limit);
+        if (result.size() < limit) {
+            Set<String> seen = new HashSet<>(result);
+            for (String title : fuzzy(query, limit)) {
+                if (result.size() == limit) {
+                    break;
+                }
+                if (seen.add(title)) {
+                    result.add(title);
+                }
+            }
+        }
+        return result;
+    }
+
+    // depth-first, alphabetical collection of the titles under node
+    private void collect(TrieNode node, List<String> result, int limit) {
+        if (result.size() >= limit) {
+            return;
+        }
+        if (node.title != null) {
+            result.add(node.title);
+        }
+        for (TrieNode child : node.children) {
+            if (result.size() >= limit) {
+                return;
+            }
+            collect(child, result, limit);
+        }
+    }
+
+    private void trieInsert(String key, String title) {
+        TrieNode node = root;
+        int i = 0;
+        while (i < key.length()) {
+            int at = node.find(key.charAt(i));
+            if (at < 0) {
+                node.insertChild(new TrieNode(key.substring(i), title));
+                return;
+            }
+            TrieNode child = node.children[at];
+            int common = 0;
+            int max = Math.min(child.label.length(), key.length() - i);
+            while (common < max && child.label.charAt(common) == key.charAt(i + common)) {
+                common++;
+            }
+            if (common < child.label.length()) {
+                // split the edge at the end of the common part
+                TrieNode middle = new TrieNode(child.label.substring(0, common), null);
+                child.label = child.label.substring(common);
+                middle.children = new TrieNode[] {child};
+                node.children[at] = middle;
+                child = middle;
+            }
+            node = child;
+            i += common;
+        }
+        node.title = title;
+    }
+
+    private void trieRemove(String key) {
+        TrieNode parent = null;
+        int parentAt = -1;
+        TrieNode node = root;
+        int i = 0;
+        while (i < key.length()) {
+            int at = node.find(key.charAt(i));
+            parent = node;
+            parentAt = at;
+            node = node.children[at];
+            i += node.label.length();
+        }
+        node.title = null;
+        if (node == root) {
+            return;
+        }
+        if (node.children.length == 0) {
+            parent.removeChild(parentAt);
+            if (parent != root && parent.title == null && parent.children.length == 1) {
+                merge(parent);
+            }
+        } else if (node.children.length == 1) {
+            merge(node);
+        }
+    }
+
+    // folds the only child of a title-less node into it
+    private static void merge(TrieNode node) {
+        TrieNode child = node.children[0];
+        node.label = node.label + child.label;
+        node.title = child.title;
+        node.children = child.children;
+    }
+
+    private void rebuildPostings() {
+        postings.clear();
+        String[] oldKeys = keys;
+        String[] oldTitles = titles;
+        int oldCount = nextId;
+        keys = new String[Math.max(1024, ids.size() * 2)];
+        titles = new String[keys.length];
+        gramCounts = new int[keys.length];
+        nextId = 0;
+        deadIds = 0;
+        for (int old = 0; old < oldCount; old++) {
+            if (oldKeys[old] == null) {
+                continue;
+            }
+            int id = nextId++;
+            keys[id] = oldKeys[old];
+            titles[id] = oldTitles[old];
+            ids.put(keys[id], id);
+            index(id);
+        }
+    }
+
+    // adds title id to the posting list of each of its trigrams
+    private void index(int id) {
+        Set<Long> grams = trigrams(keys[id]);
+        gramCounts[id] = grams.size();
+        for (long trigram : grams) {
+            postings.computeIfAbsent(trigram, t -> new IntList()).add(id);
+        }
+    }
+
+    // distinct trigrams of "  key ", each packed into a long
+    private static Set<Long> trigrams(String key) {
+        String padded = "  " + key + " ";
+        Set<Long> result = new HashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            result.add(((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2));
+        }
+        return result;
+    }
+
+    // Main method to test the index and measure query latency: java bookSystem.TitleSearch [titles]
+    public static void main(String[] args) {
+        TitleSearch search = new TitleSearch();
+        for (String title : new String[] {"Algorithms", "Algorithm Design", "Data Structures", "Database Systems",
+                "Data Mining", "Operating Systems", "Distributed Systems"}) {
+            search.add(title);
+        }
+        assert !search.add("data structures");
+        assert search.prefix("data", 10).equals(List.of("Data Mining", "Data Structures", "Database Systems"));
+        assert search.prefix("algorithm", 10).equals(List.of("Algorithm Design", "Algorithms"));
+        assert search.prefix("algorithms", 1).equals(List.of("Algorithms"));
+        assert search.prefix("xyz", 10).isEmpty();
+        assert search.fuzzy("Data Structurs", 1).equals(List.of("Data Structures"));
+        assert search.fuzzy("Operting Sytems", 3).get(0).equals("Operating Systems");
+        assert search.search("Algoritms", 5).get(0).equals("Algorithms");
+
+        assert search.remove("Data Mining") && !search.remove("Data Mining");
+        assert search.prefix("dat", 10).equals(List.of("Data Structures", "Database Systems"));
+        assert search.remove("Algorithms");
+        assert search.prefix("algo", 10).equals(List.of("Algorithm Design"));
+        assert search.add("Algorithms") && search.prefix("algo", 10).size() == 2;
+        System.out.println("Title search tests passed.");
+
+        // Latency over a large generated catalogue
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        String[] words = new String[2000];
+        Random random = new Random(3);
+        for (int i = 0; i < words.length; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 3 + random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            words[i] = word.toString();
+        }
+        TitleSearch big = new TitleSearch();
+        List<String> all = new ArrayList<>();
+        while (big.size() < count) {
+            String title = words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)]
+                    + " " + words[random.nextInt(words.length)];
+            if (big.add(title)) {
+                all.add(title);
+            }
+        }
+        // the pruned fuzzy search finds what scoring every title would (over several id blocks)
+        List<String> sample = all.subList(0, Math.min(all.size(), 3 * BLOCK));
+        TitleSearch small = new TitleSearch();
+        sample.forEach(small::add);
+        List<Set<Long>> sampleGrams = new ArrayList<>();
+        for (String title : sample) {
+            sampleGrams.add(trigrams(BookManager.titleKey(title)));
+        }
+        for (int i = 0; i < 50; i++) {
+            String title = sample.get(random.nextInt(sample.size()));
+            int typo = random.nextInt(title.length());
+            String query = title.substring(0, typo) + title.substring(typo + 1);
+            Set<Long> q = trigrams(BookManager.titleKey(query));
+            Set<String> expected = new HashSet<>();
+            for (int c = 0; c < sample.size(); c++) {
+                Set<Long> g = sampleGrams.get(c);
+                int overlap = 0;
+                for (long trigram : q) {
+                    overlap += g.contains(trigram) ? 1 : 0;
+                }
+                if (2.0 * overlap / (q.size() + g.size()) >= MIN_SIMILARITY) {
+                    expected.add(sample.get(c));
+                }
+            }
+            assert new HashSet<>(small.fuzzy(query, sample.size())).equals(expected) : query;
+        }
+
+        // on the large catalogue fuzzy is approximate, but still finds the title a typo came from
+        int missed = 0;
+        for (String kind : new String[] {"prefix", "fuzzy", "miss"}) {
+            int queries = 20_000;
+            long[] latency = new long[queries];
+            for (int i = 0; i < queries; i++) {
+                String title = all.get(random.nextInt(all.size()));
+                long start = System.nanoTime();
+                if (kind.equals("prefix")) {
+                    big.prefix(title.substring(0, 1 + random.nextInt(title.length())), 10);
+                } else if (kind.equals("fuzzy")) {
+                    int typo = random.nextInt(title.length());
+                    if (!big.fuzzy(title.substring(0, typo) + title.substring(typo + 1), 10).contains(title)) {
+                        missed++;
+                    }
+                } else {
+                    big.search("qqzx" + i, 10);
+                }
+                latency[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(latency);
+            System.out.printf("%-6s over %,d titles: p50 %,d us, p99 %,d us%n", kind, count,
+                    latency[queries / 2] / 1000, latency[queries * 99 / 100] / 1000);
+        }
+        assert missed <= 20_000 / 100 : missed + " typos not traced back";
+    }
+}